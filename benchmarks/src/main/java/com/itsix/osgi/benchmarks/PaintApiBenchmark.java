@@ -0,0 +1,81 @@
+package com.itsix.osgi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JPanel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.itsix.osgi.paint.SwingUtils;
+import com.itsix.osgi.paint.api.Shape;
+import com.itsix.osgi.paint.api.internal.ShapeImpl;
+import com.itsix.osgi.paint.headless.HeadlessPaint;
+import com.itsix.osgi.paint.model.ShapeStore;
+import com.itsix.osgi.paint.rest.ShapeDTO;
+
+/**
+ * Throughput of adding a shape and deleting it by id through the headless
+ * <tt>PaintApi</tt>, against the same changes made the way the paint frame
+ * makes them: into the canvas model, then mirrored in one trip to the event
+ * dispatch thread per change, which damages the bounds of the shape. The
+ * paint frame itself needs a display, so a panel that is never shown stands
+ * in for its canvas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PaintApiBenchmark {
+
+    private static final int CANVAS_SIZE = 400;
+    private static final int SHAPE_SIZE = 54;
+
+    private HeadlessPaint headless;
+    private ShapeStore store;
+    private JPanel canvas;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        headless = new HeadlessPaint(null);
+        store = new ShapeStore(SHAPE_SIZE, 1 << 16);
+        canvas = new JPanel();
+        canvas.setSize(CANVAS_SIZE, CANVAS_SIZE);
+    }
+
+    @Benchmark
+    public Shape headless() {
+        int position = next++ % CANVAS_SIZE;
+        Shape shape = headless
+                .addShape(new ShapeDTO("Circle", position, position));
+        return headless.deleteShape(shape.getId());
+    }
+
+    @Benchmark
+    public Shape swingMirrored() {
+        int position = next++ % CANVAS_SIZE;
+        ShapeImpl shape = store.add("Circle", position, position, SHAPE_SIZE,
+                SHAPE_SIZE);
+        mirror(shape);
+        ShapeImpl removed = store.remove(shape.getId());
+        mirror(removed);
+        return removed;
+    }
+
+    private void mirror(final ShapeImpl shape) {
+        SwingUtils.invokeAndWait(new Runnable() {
+            public void run() {
+                store.get(shape.getId());
+                canvas.repaint(shape.getX() - shape.getWidth() / 2,
+                        shape.getY() - shape.getHeight() / 2,
+                        shape.getWidth(), shape.getHeight());
+            }
+        });
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.itsix.osgi.benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.itsix.osgi.shape.SimpleShape;
+import com.itsix.osgi.shape.circle.Circle;
+import com.itsix.osgi.shape.square.Square;
+import com.itsix.osgi.shape.triangle.Triangle;
+
+/**
+ * Drawing every shape type into an offscreen image, with and without
+ * antialiasing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ShapeDrawBenchmark {
+
+    @Param({ "Circle", "Square", "Triangle" })
+    String shape;
+
+    @Param({ "true", "false" })
+    boolean antialiasing;
+
+    private SimpleShape simpleShape;
+    private BufferedImage image;
+    private Graphics2D g2;
+    private final Point center = new Point(32, 32);
+
+    @Setup
+    public void setUp() {
+        if ("Circle".equals(shape)) {
+            simpleShape = new Circle();
+        } else if ("Square".equals(shape)) {
+            simpleShape = new Square();
+        } else {
+            simpleShape = new Triangle();
+        }
+        image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB_PRE);
+        g2 = image.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                antialiasing ? RenderingHints.VALUE_ANTIALIAS_ON
+                        : RenderingHints.VALUE_ANTIALIAS_OFF);
+    }
+
+    @TearDown
+    public void tearDown() {
+        g2.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage draw() {
+        simpleShape.draw(g2, center);
+        return image;
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.itsix.osgi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.itsix.osgi.paint.api.internal.ShapeImpl;
+
+/**
+ * Creating and comparing the immutable shapes handed out by the canvas.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ShapeImplBenchmark {
+
+    private int x = 10;
+    private final ShapeImpl shape = new ShapeImpl(1, "Circle", 10, 20, 54, 54);
+    // Built apart, so equality cannot short-circuit on identity.
+    private final ShapeImpl same = new ShapeImpl(2, new String("Circle"), 10,
+            20, 54, 54);
+    private final ShapeImpl other = new ShapeImpl(3, "Square", 10, 20, 54,
+            54);
+
+    @Benchmark
+    public ShapeImpl create() {
+        return new ShapeImpl(x, "Circle", x, x, 54, 54);
+    }
+
+    @Benchmark
+    public ShapeImpl moveTo() {
+        return shape.moveTo(x, x);
+    }
+
+    @Benchmark
+    public boolean equalsSame() {
+        return shape.equals(same);
+    }
+
+    @Benchmark
+    public boolean equalsOther() {
+        return shape.equals(other);
+    }
+
+}
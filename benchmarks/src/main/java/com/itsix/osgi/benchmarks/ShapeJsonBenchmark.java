@@ -0,0 +1,67 @@
+package com.itsix.osgi.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectWriter;
+import org.codehaus.jackson.type.TypeReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.itsix.osgi.paint.api.Shape;
+import com.itsix.osgi.paint.rest.ShapeDTO;
+
+/**
+ * Serializing and parsing collections of <tt>ShapeDTO</tt> with Jackson, as
+ * the REST service does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ShapeJsonBenchmark {
+
+    private static final String[] NAMES = { "Circle", "Square", "Triangle" };
+
+    @Param({ "100", "10000" })
+    int shapes;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private ObjectWriter writer;
+    private List<ShapeDTO> dtos;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        // The view used by the shape listings of the service.
+        writer = mapper.writerWithView(Shape.class);
+        dtos = new ArrayList<ShapeDTO>(shapes);
+        Random random = new Random(1);
+        for (int i = 0; i < shapes; i++) {
+            dtos.add(new ShapeDTO(NAMES[i % NAMES.length],
+                    random.nextInt(4000), random.nextInt(4000)));
+        }
+        json = writer.writeValueAsBytes(dtos);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return writer.writeValueAsBytes(dtos);
+    }
+
+    @Benchmark
+    public List<ShapeDTO> deserialize() throws IOException {
+        return mapper.readValue(json, new TypeReference<List<ShapeDTO>>() {
+        });
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.itsix.osgi.benchmarks;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.itsix.osgi.paint.api.Shape;
+import com.itsix.osgi.paint.api.ShapePage;
+import com.itsix.osgi.paint.api.internal.ShapeImpl;
+import com.itsix.osgi.paint.model.ShapeStore;
+
+/**
+ * Adding, listing and deleting shapes through the canvas model behind the
+ * <tt>PaintApi</tt>. The Swing mirror of the paint frame is left out, since it
+ * needs a display.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ShapeStoreBenchmark {
+
+    private static final String[] NAMES = { "Circle", "Square", "Triangle" };
+    private static final int CANVAS_SIZE = 4000;
+    private static final int SHAPE_SIZE = 54;
+
+    @Param({ "1000", "10000", "100000" })
+    int shapes;
+
+    private ShapeStore store;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        store = new ShapeStore(SHAPE_SIZE, 1 << 16);
+        Random random = new Random(1);
+        for (int i = 0; i < shapes; i++) {
+            store.add(NAMES[i % NAMES.length], random.nextInt(CANVAS_SIZE),
+                    random.nextInt(CANVAS_SIZE), SHAPE_SIZE, SHAPE_SIZE);
+        }
+    }
+
+    /**
+     * Adds a shape and deletes it by id, keeping the size of the canvas.
+     */
+    @Benchmark
+    public ShapeImpl addAndDelete() {
+        int position = next++ % CANVAS_SIZE;
+        ShapeImpl shape = store.add("Circle", position, position, SHAPE_SIZE,
+                SHAPE_SIZE);
+        return store.remove(shape.getId());
+    }
+
+    /**
+     * Adds a shape and deletes it by value, as <tt>PaintApi.deleteShape</tt>
+     * does.
+     */
+    @Benchmark
+    public List<ShapeImpl> addAndDeleteByValue() {
+        int position = next++ % CANVAS_SIZE;
+        ShapeImpl shape = store.add("Circle", position, position, SHAPE_SIZE,
+                SHAPE_SIZE);
+        return store.removeAll(shape);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Collection<Shape> listAll() {
+        return store.list();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ShapePage listPage() {
+        return store.page(shapes / 2, 1000);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<ShapeImpl> listRegion() {
+        return store.query(1800, 1800, 2200, 2200);
+    }
+
+}
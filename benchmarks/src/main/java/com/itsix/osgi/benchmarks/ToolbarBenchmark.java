@@ -0,0 +1,109 @@
+package com.itsix.osgi.benchmarks;
+
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+import javax.swing.JButton;
+import javax.swing.JToolBar;
+import javax.swing.SwingUtilities;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.itsix.osgi.paint.LazyIcon;
+
+/**
+ * Time to the first paint of the toolbar with many shape providers bound, the
+ * part of the time to first frame that grows with the number of providers.
+ * The eager variant decodes every icon as it is bound and updates the toolbar
+ * in one trip to the event dispatch thread per provider, as the paint frame
+ * used to; the lazy one binds every provider first and updates the toolbar in
+ * a single trip, with icons decoded when the toolbar is painted.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+public class ToolbarBenchmark {
+
+    private static final String[] ICONS = { "/circle.png", "/square.png",
+            "/triangle.png" };
+
+    @Param({ "64" })
+    int providers;
+
+    private final List<URL> resources = new ArrayList<URL>();
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < providers; i++) {
+            resources.add(getClass().getResource(ICONS[i % ICONS.length]));
+        }
+    }
+
+    @Benchmark
+    public BufferedImage eager() throws InterruptedException,
+            InvocationTargetException {
+        final JToolBar toolbar = new JToolBar();
+        for (URL resource : resources) {
+            final Icon icon = new ImageIcon(
+                    Toolkit.getDefaultToolkit().createImage(resource));
+            SwingUtilities.invokeAndWait(new Runnable() {
+                public void run() {
+                    toolbar.add(new JButton(icon));
+                    toolbar.validate();
+                }
+            });
+        }
+        return paint(toolbar);
+    }
+
+    @Benchmark
+    public BufferedImage lazy() throws InterruptedException,
+            InvocationTargetException {
+        final List<Icon> icons = new ArrayList<Icon>();
+        for (URL resource : resources) {
+            icons.add(new LazyIcon(resource));
+        }
+        final JToolBar toolbar = new JToolBar();
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                for (Icon icon : icons) {
+                    toolbar.add(new JButton(icon));
+                }
+            }
+        });
+        return paint(toolbar);
+    }
+
+    private static BufferedImage paint(final JToolBar toolbar)
+            throws InterruptedException, InvocationTargetException {
+        final BufferedImage image = new BufferedImage(4096, 64,
+                BufferedImage.TYPE_INT_ARGB);
+        SwingUtilities.invokeAndWait(new Runnable() {
+            public void run() {
+                toolbar.setSize(toolbar.getPreferredSize());
+                toolbar.validate();
+                toolbar.paint(image.getGraphics());
+            }
+        });
+        return image;
+    }
+
+}
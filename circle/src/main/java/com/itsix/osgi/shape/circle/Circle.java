@@ -18,33 +18,27 @@
  */
 package com.itsix.osgi.shape.circle;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
-import java.awt.GradientPaint;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.geom.Ellipse2D;
 
-import javax.swing.Icon;
-import javax.swing.ImageIcon;
-
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
 import org.apache.felix.ipojo.annotations.Provides;
-import org.apache.felix.ipojo.annotations.ServiceProperty;
+import org.apache.felix.ipojo.annotations.StaticServiceProperty;
 
+import com.itsix.osgi.shape.ShapePainter;
 import com.itsix.osgi.shape.SimpleShape;
 
-@Component(immediate = true)
-@Provides
+@Component
+@Provides(strategy = "SERVICE", properties = {
+        @StaticServiceProperty(name = SimpleShape.NAME_PROPERTY, value = "Circle", type = "java.lang.String"),
+        @StaticServiceProperty(name = SimpleShape.ICON_RESOURCE_PROPERTY, value = "/circle.png", type = "java.lang.String") })
 @Instantiate
 public class Circle implements SimpleShape {
 
-    @ServiceProperty(name = SimpleShape.NAME_PROPERTY)
-    private String name = "Circle";
-
-    @ServiceProperty(name = SimpleShape.ICON_PROPERTY)
-    private Icon icon = new ImageIcon(getClass().getResource("/circle.png"));
+    private static final ShapePainter PAINTER = new ShapePainter(new Ellipse2D.Double(-25, -25, 50, 50), Color.RED);
 
     /**
      * Implements the <tt>SimpleShape.draw()</tt> method for painting the shape.
@@ -53,14 +47,6 @@ public class Circle implements SimpleShape {
      * @param p  The position to paint the triangle.
      **/
     public void draw(Graphics2D g2, Point p) {
-        int x = p.x - 25;
-        int y = p.y - 25;
-        GradientPaint gradient = new GradientPaint(x, y, Color.RED, x + 50, y, Color.WHITE);
-        g2.setPaint(gradient);
-        g2.fill(new Ellipse2D.Double(x, y, 50, 50));
-        BasicStroke wideStroke = new BasicStroke(2.0f);
-        g2.setColor(Color.black);
-        g2.setStroke(wideStroke);
-        g2.draw(new Ellipse2D.Double(x, y, 50, 50));
+        PAINTER.draw(g2, p);
     }
 }
@@ -0,0 +1,13 @@
+package com.itsix.osgi.shape.circle;
+
+import com.itsix.osgi.shape.AbstractShapeTest;
+import com.itsix.osgi.shape.SimpleShape;
+
+public class CircleTest extends AbstractShapeTest {
+
+    @Override
+    protected SimpleShape createShape() {
+        return new Circle();
+    }
+
+}
@@ -0,0 +1,277 @@
+package com.itsix.osgi.paint.headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.felix.ipojo.annotations.Bind;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Unbind;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.osgi.framework.BundleContext;
+
+import com.itsix.osgi.paint.api.ColumnarSnapshot;
+import com.itsix.osgi.paint.api.PaintApi;
+import com.itsix.osgi.paint.api.PaintCallback;
+import com.itsix.osgi.paint.api.PaintMetrics;
+import com.itsix.osgi.paint.api.RateMeter;
+import com.itsix.osgi.paint.api.Shape;
+import com.itsix.osgi.paint.api.ShapeChanges;
+import com.itsix.osgi.paint.api.ShapePage;
+import com.itsix.osgi.paint.api.ShapeResult;
+import com.itsix.osgi.paint.api.StallReport;
+import com.itsix.osgi.paint.api.StartupTrace;
+import com.itsix.osgi.paint.api.Subscriber;
+import com.itsix.osgi.paint.api.SubscriberStats;
+import com.itsix.osgi.paint.api.internal.ShapeImpl;
+import com.itsix.osgi.paint.model.EventDispatcher;
+import com.itsix.osgi.paint.model.ShapeCanvas;
+import com.itsix.osgi.paint.model.ShapeJournal;
+import com.itsix.osgi.paint.model.ShapeStore;
+
+/**
+ * Provides the <tt>PaintApi</tt> from a canvas that only lives in memory, for
+ * servers with no display. The canvas is the same {@link ShapeCanvas} the
+ * paint frame mirrors on screen, its {@link ShapeStore} saved by a
+ * {@link ShapeJournal}, but nothing is mirrored: every change is complete
+ * once it is in the store, and no call touches AWT or Swing.
+ * <p>
+ * The canvas is a rectangle starting at the origin, sized through the
+ * <tt>com.itsix.osgi.paint.headless.width</tt> and
+ * <tt>com.itsix.osgi.paint.headless.height</tt> system properties.
+ */
+@Component(immediate = true, publicFactory = false)
+@Instantiate
+@Provides(specifications = PaintApi.class)
+public class HeadlessPaint implements PaintApi {
+
+    /**
+     * System property naming the directory where the canvas is saved. By
+     * default it is saved in the data area of the bundle. A journal is only
+     * opened by one canvas at a time, so this is not the directory of the
+     * paint frame.
+     */
+    public static final String JOURNAL_PROPERTY = "com.itsix.osgi.paint.headless.journal";
+    public static final String WIDTH_PROPERTY = "com.itsix.osgi.paint.headless.width";
+    public static final String HEIGHT_PROPERTY = "com.itsix.osgi.paint.headless.height";
+    private static final int SHAPE_SIZE = 54;
+    private static final int CHANGE_LOG_SIZE = 1 << 16;
+
+    private final int width = Integer.getInteger(WIDTH_PROPERTY, 400);
+    private final int height = Integer.getInteger(HEIGHT_PROPERTY, 400);
+    private final ShapeCanvas canvas = new ShapeCanvas(SHAPE_SIZE,
+            CHANGE_LOG_SIZE, new ShapeCanvas.Bounds() {
+                public String check(int x, int y) {
+                    return contains(x, y) ? null : "Out of bounds";
+                }
+            });
+    private final ShapeStore store = canvas.getStore();
+    private final EventDispatcher dispatcher = new EventDispatcher();
+    private final RateMeter mutations = new RateMeter();
+    private final BundleContext context;
+
+    /**
+     * @param context
+     *            The context of the bundle, whose data area keeps the canvas,
+     *            or <tt>null</tt> for a canvas that is only saved if
+     *            {@link #JOURNAL_PROPERTY} is set.
+     */
+    public HeadlessPaint(BundleContext context) {
+        this.context = context;
+        store.addListener(dispatcher);
+    }
+
+    /**
+     * Restores the canvas and keeps saving it, unless there is neither a
+     * journal directory set nor a bundle context.
+     */
+    @Validate
+    protected void activate() {
+        StartupTrace.mark("paint-headless: valid");
+        String path = System.getProperty(JOURNAL_PROPERTY);
+        if (path == null && context == null) {
+            return;
+        }
+        canvas.openJournal(path != null ? new File(path)
+                : context.getDataFile("canvas"), "paint-headless");
+    }
+
+    @Invalidate
+    protected void deactivate() {
+        canvas.closeJournal();
+        dispatcher.close();
+    }
+
+    public Collection<Shape> listShapes() {
+        return store.list();
+    }
+
+    public ShapePage listShapes(long after, int limit) {
+        return store.page(after, limit);
+    }
+
+    public Collection<Shape> listShapes(int x1, int y1, int x2, int y2) {
+        return Collections.<Shape> unmodifiableList(
+                store.query(x1, y1, x2, y2));
+    }
+
+    public long getVersion() {
+        return store.getVersion();
+    }
+
+    public ShapeChanges listChanges(long since) {
+        return store.changesSince(since);
+    }
+
+    public Shape getShape(long id) {
+        return store.get(id);
+    }
+
+    public Shape moveShape(long id, int x, int y) {
+        ShapeImpl moved = canvas.move(id, x, y);
+        if (moved != null) {
+            mutations.mark();
+        }
+        return moved;
+    }
+
+    public Shape deleteShape(long id) {
+        ShapeImpl removed = store.remove(id);
+        if (removed != null) {
+            mutations.mark();
+        }
+        return removed;
+    }
+
+    public void exportSnapshot(WritableByteChannel channel)
+            throws IOException {
+        ColumnarSnapshot.write(store.snapshot(), channel);
+    }
+
+    public int importSnapshot(ByteBuffer snapshot) {
+        int added = canvas.importSnapshot(snapshot).size();
+        mutations.mark(added);
+        return added;
+    }
+
+    public Shape addShape(Shape shape) {
+        ShapeImpl added = canvas.add(shape);
+        mutations.mark();
+        return added;
+    }
+
+    public void deleteShape(Shape shape) {
+        mutations.mark(canvas.removeAll(shape).size());
+    }
+
+    public List<ShapeResult> addShapes(List<? extends Shape> shapes) {
+        List<ShapeImpl> added = new ArrayList<ShapeImpl>(shapes.size());
+        List<ShapeResult> results = canvas.addShapes(shapes, added);
+        mutations.mark(added.size());
+        return results;
+    }
+
+    public List<ShapeResult> deleteShapes(List<? extends Shape> shapes) {
+        List<ShapeImpl> removed = new ArrayList<ShapeImpl>();
+        List<ShapeResult> results = canvas.deleteShapes(shapes, removed);
+        mutations.mark(removed.size());
+        return results;
+    }
+
+    public Future<ShapeResult> addShapeAsync(Shape shape,
+            PaintCallback<ShapeResult> callback) {
+        ShapeImpl added;
+        try {
+            added = canvas.add(shape);
+        } catch (IllegalArgumentException e) {
+            return complete(ShapeResult.failed(e.getMessage()), callback);
+        }
+        mutations.mark();
+        return complete(ShapeResult.ok(added.getId()), callback);
+    }
+
+    public Future<ShapeResult> deleteShapeAsync(Shape shape,
+            PaintCallback<ShapeResult> callback) {
+        List<ShapeImpl> removed = canvas.removeAll(shape);
+        if (removed.isEmpty()) {
+            return complete(ShapeResult.failed("Not found"), callback);
+        }
+        mutations.mark(removed.size());
+        return complete(ShapeResult.ok(), callback);
+    }
+
+    /**
+     * @return A future already completed with the given result, after
+     *         notifying the callback, if any, on the calling thread.
+     */
+    private static Future<ShapeResult> complete(final ShapeResult result,
+            PaintCallback<ShapeResult> callback) {
+        FutureTask<ShapeResult> future = new FutureTask<ShapeResult>(
+                new Callable<ShapeResult>() {
+                    public ShapeResult call() {
+                        return result;
+                    }
+                });
+        future.run();
+        if (callback != null) {
+            try {
+                callback.completed(result);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        return future;
+    }
+
+    private boolean contains(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /**
+     * Registers a whiteboard <tt>Subscriber</tt> to be notified of the changes
+     * of the canvas.
+     */
+    @Bind(aggregate = true, optional = true)
+    public void bindSubscriber(Subscriber subscriber) {
+        dispatcher.register(subscriber);
+    }
+
+    @Unbind(aggregate = true)
+    public void unbindSubscriber(Subscriber subscriber) {
+        dispatcher.unregister(subscriber);
+    }
+
+    public List<SubscriberStats> listSubscriberStats() {
+        return dispatcher.getStatistics();
+    }
+
+    /**
+     * @return The changes of the canvas and its shape counts. There is no
+     *         event dispatch thread nor repaint to time, so those metrics are
+     *         absent.
+     */
+    public PaintMetrics getMetrics() {
+        return new PaintMetrics(null, null, null, mutations, null,
+                store.countByType());
+    }
+
+    /**
+     * @return No reports: without an event dispatch thread, there is nothing
+     *         to stall.
+     */
+    public List<StallReport> listStalls() {
+        return Collections.emptyList();
+    }
+
+}
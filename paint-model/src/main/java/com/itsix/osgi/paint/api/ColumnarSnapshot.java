@@ -0,0 +1,236 @@
+package com.itsix.osgi.paint.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of the shapes of a canvas in a columnar binary layout, made to be
+ * read in place from a memory-mapped file. All values are big-endian ints:
+ * <ul>
+ * <li>a header: magic number, format version, number of shapes and number of
+ * distinct shape names;</li>
+ * <li>the name dictionary: the offsets of every name plus the end offset,
+ * followed by the UTF-8 bytes of the names, padded to a multiple of 4;</li>
+ * <li>one column per attribute, in order name index, <tt>x</tt>, <tt>y</tt>,
+ * <tt>width</tt> and <tt>height</tt>, each holding a value per shape. A name
+ * index of <tt>-1</tt> stands for a missing name.</li>
+ * </ul>
+ * Reading a snapshot only decodes the dictionary; the columns are views of
+ * the given buffer.
+ */
+public final class ColumnarSnapshot {
+
+    public static final String MEDIA_TYPE = "application/x-paint-snapshot";
+
+    private static final int MAGIC = 0x50434f4c;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 4 * 4;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String[] names;
+    private final IntBuffer nameIndexes;
+    private final IntBuffer xs;
+    private final IntBuffer ys;
+    private final IntBuffer widths;
+    private final IntBuffer heights;
+
+    private ColumnarSnapshot(String[] names, IntBuffer columns, int size) {
+        this.names = names;
+        this.nameIndexes = column(columns, 0, size);
+        this.xs = column(columns, 1, size);
+        this.ys = column(columns, 2, size);
+        this.widths = column(columns, 3, size);
+        this.heights = column(columns, 4, size);
+    }
+
+    /**
+     * Reads the snapshot held by the given buffer, from its position.
+     *
+     * @throws IllegalArgumentException
+     *             If the buffer does not hold a complete snapshot.
+     */
+    public static ColumnarSnapshot read(ByteBuffer buffer) {
+        ByteBuffer data = buffer.slice();
+        if (data.remaining() < HEADER_SIZE || data.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a canvas snapshot");
+        }
+        if (data.getInt() != FORMAT_VERSION) {
+            throw new IllegalArgumentException(
+                    "Unsupported canvas snapshot version");
+        }
+        int size = data.getInt();
+        int nameCount = data.getInt();
+        if (size < 0 || nameCount < 0
+                || nameCount >= data.remaining() / 4) {
+            throw new IllegalArgumentException("Corrupt canvas snapshot");
+        }
+        int[] offsets = new int[nameCount + 1];
+        data.asIntBuffer().get(offsets);
+        int blob = data.position() + offsets.length * 4;
+        int blobLength = offsets[nameCount];
+        int columns = blob + padded(blobLength);
+        if (blobLength < 0 || columns < 0
+                || (long) columns + 5L * 4 * size > data.limit()) {
+            throw new IllegalArgumentException("Corrupt canvas snapshot");
+        }
+        String[] names = new String[nameCount];
+        for (int i = 0; i < nameCount; i++) {
+            int start = offsets[i];
+            int end = offsets[i + 1];
+            if (start < 0 || end < start || end > blobLength) {
+                throw new IllegalArgumentException("Corrupt canvas snapshot");
+            }
+            byte[] bytes = new byte[end - start];
+            data.position(blob + start);
+            data.get(bytes);
+            names[i] = new String(bytes, UTF8);
+        }
+        data.position(columns);
+        return new ColumnarSnapshot(names, data.slice().asIntBuffer(), size);
+    }
+
+    /**
+     * Writes a snapshot of the given shapes.
+     */
+    public static void write(Collection<? extends Shape> shapes,
+            WritableByteChannel channel) throws IOException {
+        Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        List<byte[]> names = new ArrayList<byte[]>();
+        for (Shape shape : shapes) {
+            String name = shape.getName();
+            if (name != null && !dictionary.containsKey(name)) {
+                dictionary.put(name, names.size());
+                names.add(name.getBytes(UTF8));
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(shapes.size())
+                .putInt(names.size());
+        int offset = 0;
+        for (int i = 0; i <= names.size(); i++) {
+            ensureRemaining(buffer, channel, 4);
+            buffer.putInt(offset);
+            if (i < names.size()) {
+                offset += names.get(i).length;
+            }
+        }
+        for (byte[] name : names) {
+            int written = 0;
+            while (written < name.length) {
+                ensureRemaining(buffer, channel, 1);
+                int length = Math.min(buffer.remaining(),
+                        name.length - written);
+                buffer.put(name, written, length);
+                written += length;
+            }
+        }
+        for (int i = offset; i < padded(offset); i++) {
+            ensureRemaining(buffer, channel, 1);
+            buffer.put((byte) 0);
+        }
+        // One pass per column, so nothing is buffered but a block.
+        for (int column = 0; column < 5; column++) {
+            for (Shape shape : shapes) {
+                ensureRemaining(buffer, channel, 4);
+                buffer.putInt(value(shape, column, dictionary));
+            }
+        }
+        drain(buffer, channel);
+    }
+
+    public int size() {
+        return xs.limit();
+    }
+
+    /**
+     * @return The distinct shape names of the snapshot.
+     */
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    /**
+     * @return The name of the shape at the given index, <tt>null</tt> for a
+     *         shape without a name.
+     * @throws IllegalArgumentException
+     *             If the snapshot refers to a name it does not hold.
+     */
+    public String getName(int index) {
+        int name = nameIndexes.get(index);
+        // -1 stands for no name.
+        if (name < -1 || name >= names.length) {
+            throw new IllegalArgumentException("Corrupt canvas snapshot");
+        }
+        return name < 0 ? null : names[name];
+    }
+
+    public int getX(int index) {
+        return xs.get(index);
+    }
+
+    public int getY(int index) {
+        return ys.get(index);
+    }
+
+    public int getWidth(int index) {
+        return widths.get(index);
+    }
+
+    public int getHeight(int index) {
+        return heights.get(index);
+    }
+
+    private static IntBuffer column(IntBuffer columns, int column, int size) {
+        IntBuffer view = columns.duplicate();
+        view.position(column * size);
+        view.limit(column * size + size);
+        return view.slice();
+    }
+
+    private static int value(Shape shape, int column,
+            Map<String, Integer> dictionary) {
+        switch (column) {
+        case 0:
+            return shape.getName() == null ? -1
+                    : dictionary.get(shape.getName());
+        case 1:
+            return shape.getX();
+        case 2:
+            return shape.getY();
+        case 3:
+            return shape.getWidth();
+        default:
+            return shape.getHeight();
+        }
+    }
+
+    private static int padded(int length) {
+        return (length + 3) & ~3;
+    }
+
+    private static void ensureRemaining(ByteBuffer buffer,
+            WritableByteChannel channel, int length) throws IOException {
+        if (buffer.remaining() < length) {
+            drain(buffer, channel);
+        }
+    }
+
+    private static void drain(ByteBuffer buffer, WritableByteChannel channel)
+            throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+}
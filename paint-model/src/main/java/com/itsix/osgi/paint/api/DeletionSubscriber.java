@@ -0,0 +1,10 @@
+package com.itsix.osgi.paint.api;
+
+/**
+ * A <tt>Subscriber</tt> also notified of the shapes deleted from the canvas.
+ * Registered as a <tt>Subscriber</tt>, like any other.
+ */
+public interface DeletionSubscriber extends Subscriber {
+
+    public void shapeDeleted(Shape shape);
+}
@@ -0,0 +1,153 @@
+package com.itsix.osgi.paint.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+
+public interface PaintApi {
+
+    public Collection<Shape> listShapes();
+
+    /**
+     * Lists the shapes on the canvas one page at a time. Cursors stay valid
+     * while the canvas changes: shapes added after a page was taken show up in
+     * later pages, deleted ones are skipped.
+     *
+     * @param after
+     *            The cursor returned with the previous page, or <tt>0</tt> to
+     *            start from the first shape.
+     * @param limit
+     *            The maximum number of shapes to return.
+     */
+    public ShapePage listShapes(long after, int limit);
+
+    /**
+     * Lists the shapes whose bounds intersect the given rectangle, bottom
+     * first. Corners are inclusive and may be given in any order.
+     */
+    public Collection<Shape> listShapes(int x1, int y1, int x2, int y2);
+
+    /**
+     * @return The version of the canvas, bumped by every change made to it.
+     *         Shapes listed after this call reflect at least this version.
+     */
+    public long getVersion();
+
+    /**
+     * Lists the shapes added, moved and deleted since the given version,
+     * oldest first. Only the most recent changes are kept: the result is
+     * incomplete, and the canvas has to be listed again, when the given
+     * version is too old or negative.
+     */
+    public ShapeChanges listChanges(long since);
+
+    /**
+     * @return The shape with the given id, or <tt>null</tt> if it is not on
+     *         the canvas.
+     */
+    public Shape getShape(long id);
+
+    /**
+     * Moves the shape with the given id so that it is centered on the given
+     * position.
+     *
+     * @return The moved shape, or <tt>null</tt> if it is not on the canvas.
+     * @throws IllegalArgumentException
+     *             If the position is out of the bounds of the canvas.
+     */
+    public Shape moveShape(long id, int x, int y);
+
+    /**
+     * Deletes the shape with the given id.
+     *
+     * @return The deleted shape, or <tt>null</tt> if it was not on the
+     *         canvas.
+     */
+    public Shape deleteShape(long id);
+
+    /**
+     * Writes every shape on the canvas, as of a single version, to the given
+     * channel as a {@link ColumnarSnapshot}.
+     */
+    public void exportSnapshot(WritableByteChannel channel) throws IOException;
+
+    /**
+     * Adds every shape of the given snapshot to the canvas, for instance one
+     * exported from another canvas and mapped from a file. Shapes that cannot
+     * be added are skipped.
+     *
+     * @return The number of shapes added.
+     * @throws IllegalArgumentException
+     *             If the buffer does not hold a valid snapshot.
+     */
+    public int importSnapshot(ByteBuffer snapshot);
+
+    /**
+     * @return The added shape, with its id.
+     * @throws IllegalArgumentException
+     *             If the shape is missing, has no name or is out of the bounds
+     *             of the canvas.
+     */
+    public Shape addShape(Shape shape);
+
+    public void deleteShape(Shape shape);
+
+    /**
+     * Adds all the given shapes, mirroring them on screen in a single pass.
+     *
+     * @return One result per shape, in the same order, holding the id of each
+     *         added shape.
+     */
+    public List<ShapeResult> addShapes(List<? extends Shape> shapes);
+
+    /**
+     * Deletes all the given shapes, mirroring them on screen in a single
+     * pass.
+     *
+     * @return One result per shape, in the same order.
+     */
+    public List<ShapeResult> deleteShapes(List<? extends Shape> shapes);
+
+    /**
+     * Adds the given shape without waiting for it to be shown. The returned
+     * future completes, and the callback is notified, once the shape is
+     * mirrored on screen, with a result holding the id of the added shape.
+     * Shapes that cannot be added complete with a failed result.
+     *
+     * @param callback
+     *            Notified on completion, may be <tt>null</tt>.
+     */
+    public Future<ShapeResult> addShapeAsync(Shape shape,
+            PaintCallback<ShapeResult> callback);
+
+    /**
+     * Deletes the given shape without waiting for it to disappear from the
+     * screen. Completes with a failed result if there is no such shape.
+     *
+     * @param callback
+     *            Notified on completion, may be <tt>null</tt>.
+     */
+    public Future<ShapeResult> deleteShapeAsync(Shape shape,
+            PaintCallback<ShapeResult> callback);
+
+    /**
+     * @return The delivery statistics of every registered
+     *         <tt>Subscriber</tt>.
+     */
+    public List<SubscriberStats> listSubscriberStats();
+
+    /**
+     * @return The event dispatch thread, repaint and shape count metrics of
+     *         the canvas.
+     */
+    public PaintMetrics getMetrics();
+
+    /**
+     * @return The latest stalls of the event dispatch thread, newest first.
+     */
+    public List<StallReport> listStalls();
+
+}
@@ -0,0 +1,14 @@
+package com.itsix.osgi.paint.api;
+
+/**
+ * Notified when an asynchronous <tt>PaintApi</tt> operation completes. Methods
+ * are called on the event dispatch thread, or on the calling thread when the
+ * operation completes right away, so implementations must return quickly.
+ */
+public interface PaintCallback<T> {
+
+    public void completed(T result);
+
+    public void failed(Throwable error);
+
+}
@@ -0,0 +1,81 @@
+package com.itsix.osgi.paint.api;
+
+import java.util.Map;
+
+/**
+ * Metrics of the paint frame: how long work waits for and runs on the event
+ * dispatch thread, how long the canvas takes to repaint, how many changes
+ * reach the screen and how many repaints it takes, and how many shapes of
+ * every type are on the canvas. Histograms and meters are live; shape counts
+ * are taken when the metrics are requested. A canvas with no event dispatch
+ * thread or no screen leaves the metrics it cannot measure <tt>null</tt>.
+ */
+public class PaintMetrics {
+
+    private final LatencyHistogram edtQueueWait;
+    private final LatencyHistogram edtRun;
+    private final LatencyHistogram repaint;
+    private final RateMeter mutations;
+    private final RateMeter repaints;
+    private final Map<String, Integer> shapeCounts;
+
+    public PaintMetrics(LatencyHistogram edtQueueWait,
+            LatencyHistogram edtRun, LatencyHistogram repaint,
+            RateMeter mutations, RateMeter repaints,
+            Map<String, Integer> shapeCounts) {
+        this.edtQueueWait = edtQueueWait;
+        this.edtRun = edtRun;
+        this.repaint = repaint;
+        this.mutations = mutations;
+        this.repaints = repaints;
+        this.shapeCounts = shapeCounts;
+    }
+
+    /**
+     * @return The time tasks handed to the event dispatch thread waited
+     *         before running, or <tt>null</tt> if there is none.
+     */
+    public LatencyHistogram getEdtQueueWait() {
+        return edtQueueWait;
+    }
+
+    /**
+     * @return The time tasks handed to the event dispatch thread took to run,
+     *         or <tt>null</tt> if there is none.
+     */
+    public LatencyHistogram getEdtRun() {
+        return edtRun;
+    }
+
+    /**
+     * @return The time taken to paint the canvas, or <tt>null</tt> if it is
+     *         not painted.
+     */
+    public LatencyHistogram getRepaint() {
+        return repaint;
+    }
+
+    /**
+     * @return The changes made to the canvas, counted once they are
+     *         complete: mirrored on screen, if there is one.
+     */
+    public RateMeter getMutations() {
+        return mutations;
+    }
+
+    /**
+     * @return The repaints of the canvas, many changes being coalesced into
+     *         a single repaint, or <tt>null</tt> if it is not painted.
+     */
+    public RateMeter getRepaints() {
+        return repaints;
+    }
+
+    /**
+     * @return The number of shapes on the canvas by shape name.
+     */
+    public Map<String, Integer> getShapeCounts() {
+        return shapeCounts;
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.itsix.osgi.paint.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts events and reports their rate over the last window of about a
+ * second. Marking only takes the lock once per window, to roll it over.
+ */
+public final class RateMeter {
+
+    private static final long WINDOW = 1000000000L;
+
+    private final AtomicLong count = new AtomicLong();
+    // Guarded by this, and published through the volatile window start.
+    private long windowCount;
+    private double rate;
+    private volatile long windowStart = System.nanoTime();
+
+    public void mark() {
+        mark(1);
+    }
+
+    public void mark(long events) {
+        count.addAndGet(events);
+        roll(System.nanoTime());
+    }
+
+    /**
+     * @return The number of events since the meter was created.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return The events per second over the last complete window, or over
+     *         the whole time since the last event if it is longer.
+     */
+    public double getRate() {
+        roll(System.nanoTime());
+        synchronized (this) {
+            return rate;
+        }
+    }
+
+    private void roll(long now) {
+        if (now - windowStart < WINDOW) {
+            return;
+        }
+        synchronized (this) {
+            long elapsed = now - windowStart;
+            if (elapsed < WINDOW) {
+                return;
+            }
+            long current = count.get();
+            rate = (current - windowCount) * 1e9 / elapsed;
+            windowCount = current;
+            windowStart = now;
+        }
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.itsix.osgi.paint.api;
+
+public interface Shape {
+
+    /**
+     * @return The id given to the shape when it was added to the canvas,
+     *         never reused, or <tt>0</tt> for a shape not on the canvas.
+     */
+    long getId();
+
+    int getHeight();
+
+    int getWidth();
+
+    int getY();
+
+    int getX();
+
+    String getName();
+
+}
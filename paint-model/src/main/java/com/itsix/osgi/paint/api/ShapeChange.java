@@ -0,0 +1,57 @@
+package com.itsix.osgi.paint.api;
+
+/**
+ * A change of the canvas, as recorded in its change log.
+ */
+public class ShapeChange {
+
+    public enum Type {
+        ADDED, MOVED, DELETED
+    }
+
+    private final long version;
+    private final Type type;
+    private final Shape shape;
+    private final int previousX;
+    private final int previousY;
+
+    public ShapeChange(long version, Type type, Shape shape, int previousX,
+            int previousY) {
+        this.version = version;
+        this.type = type;
+        this.shape = shape;
+        this.previousX = previousX;
+        this.previousY = previousY;
+    }
+
+    /**
+     * @return The version of the canvas right after this change.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The shape after the change, or as it was before being deleted.
+     */
+    public Shape getShape() {
+        return shape;
+    }
+
+    /**
+     * @return Where the shape was centered before the change; the same as the
+     *         shape position unless it moved.
+     */
+    public int getPreviousX() {
+        return previousX;
+    }
+
+    public int getPreviousY() {
+        return previousY;
+    }
+
+}
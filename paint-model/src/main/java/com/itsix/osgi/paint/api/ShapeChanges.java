@@ -0,0 +1,41 @@
+package com.itsix.osgi.paint.api;
+
+import java.util.List;
+
+/**
+ * The changes of the canvas since a given version.
+ */
+public class ShapeChanges {
+
+    private final long version;
+    private final boolean complete;
+    private final List<ShapeChange> changes;
+
+    public ShapeChanges(long version, boolean complete,
+            List<ShapeChange> changes) {
+        this.version = version;
+        this.complete = complete;
+        this.changes = changes;
+    }
+
+    /**
+     * @return The version of the canvas these changes lead to.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return <tt>false</tt> when the requested version is too old for the
+     *         change log, in which case the changes are empty and the whole
+     *         canvas has to be fetched again.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public List<ShapeChange> getChanges() {
+        return changes;
+    }
+
+}
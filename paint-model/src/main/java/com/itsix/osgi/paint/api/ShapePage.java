@@ -0,0 +1,39 @@
+package com.itsix.osgi.paint.api;
+
+import java.util.List;
+
+/**
+ * A page of the shapes on the canvas, in z-order (bottom first).
+ */
+public class ShapePage {
+
+    private final List<Shape> shapes;
+    private final long nextCursor;
+    private final boolean more;
+
+    public ShapePage(List<Shape> shapes, long nextCursor, boolean more) {
+        this.shapes = shapes;
+        this.nextCursor = nextCursor;
+        this.more = more;
+    }
+
+    public List<Shape> getShapes() {
+        return shapes;
+    }
+
+    /**
+     * @return The cursor to pass to get the next page.
+     */
+    public long getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * @return Whether there were more shapes after this page when it was
+     *         taken.
+     */
+    public boolean hasMore() {
+        return more;
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.itsix.osgi.paint.api;
+
+/**
+ * Outcome of one item of a batch operation.
+ */
+public class ShapeResult {
+
+    private static final ShapeResult OK = new ShapeResult(true, 0, null);
+
+    private final boolean success;
+    private final long id;
+    private final String error;
+
+    private ShapeResult(boolean success, long id, String error) {
+        this.success = success;
+        this.id = id;
+        this.error = error;
+    }
+
+    public static ShapeResult ok() {
+        return OK;
+    }
+
+    /**
+     * @param id
+     *            The id of the shape the operation added.
+     */
+    public static ShapeResult ok(long id) {
+        return new ShapeResult(true, id, null);
+    }
+
+    public static ShapeResult failed(String error) {
+        return new ShapeResult(false, 0, error);
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * @return The id of the shape the operation added, or 0 if it did not
+     *         add one.
+     */
+    public long getId() {
+        return id;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+}
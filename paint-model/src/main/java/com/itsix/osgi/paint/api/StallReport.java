@@ -0,0 +1,93 @@
+package com.itsix.osgi.paint.api;
+
+import java.util.List;
+
+/**
+ * What the event dispatch thread was doing while it kept work waiting for
+ * longer than the stall threshold, and which threads were blocked on it.
+ */
+public class StallReport {
+
+    private final long time;
+    private final String task;
+    private final long runningMillis;
+    private final List<String> edtStack;
+    private final List<Caller> callers;
+
+    public StallReport(long time, String task, long runningMillis,
+            List<String> edtStack, List<Caller> callers) {
+        this.time = time;
+        this.task = task;
+        this.runningMillis = runningMillis;
+        this.edtStack = edtStack;
+        this.callers = callers;
+    }
+
+    /**
+     * @return When the stall was detected, in milliseconds since the epoch.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return The class of the task running on the event dispatch thread, or
+     *         <tt>null</tt> if it was busy with work of its own, such as
+     *         painting.
+     */
+    public String getTask() {
+        return task;
+    }
+
+    /**
+     * @return How long the task had been running, or 0 if there was none.
+     */
+    public long getRunningMillis() {
+        return runningMillis;
+    }
+
+    /**
+     * @return The stack of the event dispatch thread, innermost call first.
+     */
+    public List<String> getEdtStack() {
+        return edtStack;
+    }
+
+    /**
+     * @return The threads waiting for the event dispatch thread.
+     */
+    public List<Caller> getCallers() {
+        return callers;
+    }
+
+    /**
+     * A thread blocked until its task ran on the event dispatch thread.
+     */
+    public static class Caller {
+        private final String thread;
+        private final long waitingMillis;
+        private final List<String> stack;
+
+        public Caller(String thread, long waitingMillis, List<String> stack) {
+            this.thread = thread;
+            this.waitingMillis = waitingMillis;
+            this.stack = stack;
+        }
+
+        public String getThread() {
+            return thread;
+        }
+
+        public long getWaitingMillis() {
+            return waitingMillis;
+        }
+
+        /**
+         * @return The stack of the thread, innermost call first.
+         */
+        public List<String> getStack() {
+            return stack;
+        }
+    }
+
+}
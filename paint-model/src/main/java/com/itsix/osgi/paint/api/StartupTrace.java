@@ -0,0 +1,113 @@
+package com.itsix.osgi.paint.api;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timeline of the startup of the application, shared by every bundle: when
+ * bundles start, when components become valid and how long the steps on the
+ * way to the first frame and to serving REST requests take. Times are in
+ * milliseconds since the JVM started.
+ */
+public final class StartupTrace {
+
+    private static final int CAPACITY = 1024;
+    // Guarded by itself.
+    private static final List<Event> events = new ArrayList<Event>();
+
+    private StartupTrace() {
+    }
+
+    /**
+     * Records that the given step happened now.
+     */
+    public static void mark(String step) {
+        record(new Event(uptime(), 0, step, Thread.currentThread().getName()));
+    }
+
+    /**
+     * Records that the given step, started at the given
+     * <tt>System.nanoTime()</tt>, just completed.
+     */
+    public static void markSince(String step, long startNanos) {
+        long duration = (System.nanoTime() - startNanos) / 1000000;
+        record(new Event(uptime() - duration, duration, step,
+                Thread.currentThread().getName()));
+    }
+
+    /**
+     * @return The recorded steps, in the order they completed.
+     */
+    public static List<Event> getEvents() {
+        synchronized (events) {
+            return new ArrayList<Event>(events);
+        }
+    }
+
+    private static void record(Event event) {
+        synchronized (events) {
+            // Startup is over long before this fills up; later steps, such as
+            // bundles being restarted, are not kept.
+            if (events.size() < CAPACITY) {
+                events.add(event);
+            }
+        }
+    }
+
+    private static long uptime() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    /**
+     * A step of the startup.
+     */
+    public static class Event {
+        private final long startMillis;
+        private final long durationMillis;
+        private final String step;
+        private final String thread;
+
+        Event(long startMillis, long durationMillis, String step,
+                String thread) {
+            this.startMillis = startMillis;
+            this.durationMillis = durationMillis;
+            this.step = step;
+            this.thread = thread;
+        }
+
+        /**
+         * @return When the step started, since the JVM started.
+         */
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        /**
+         * @return How long the step took, or 0 for a point in time.
+         */
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public String getStep() {
+            return step;
+        }
+
+        /**
+         * @return The thread the step completed on.
+         */
+        public String getThread() {
+            return thread;
+        }
+
+        @Override
+        public String toString() {
+            return "+" + startMillis + " ms "
+                    + (durationMillis > 0 ? "(" + durationMillis + " ms) "
+                            : "")
+                    + step + " [" + thread + "]";
+        }
+    }
+
+}
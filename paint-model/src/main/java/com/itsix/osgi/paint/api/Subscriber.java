@@ -0,0 +1,16 @@
+package com.itsix.osgi.paint.api;
+
+/**
+ * Whiteboard service notified of the changes of the canvas. Notifications are
+ * delivered in order, in batches, on a thread dedicated to the subscriber. A
+ * subscriber that falls too far behind misses notifications rather than
+ * slowing the canvas down.
+ * <p>
+ * Subscribers that also want to hear about deleted shapes implement
+ * {@link DeletionSubscriber}.
+ */
+public interface Subscriber {
+    
+    public void shapeAdded(Shape shape);
+    public void shapeModified(Shape shape);
+}
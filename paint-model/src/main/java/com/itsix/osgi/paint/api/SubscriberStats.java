@@ -0,0 +1,47 @@
+package com.itsix.osgi.paint.api;
+
+/**
+ * Delivery statistics of a registered <tt>Subscriber</tt>.
+ */
+public class SubscriberStats {
+
+    private final String subscriber;
+    private final long delivered;
+    private final long dropped;
+    private final long lag;
+
+    public SubscriberStats(String subscriber, long delivered, long dropped,
+            long lag) {
+        this.subscriber = subscriber;
+        this.delivered = delivered;
+        this.dropped = dropped;
+        this.lag = lag;
+    }
+
+    public String getSubscriber() {
+        return subscriber;
+    }
+
+    /**
+     * @return The number of notifications delivered so far.
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * @return The number of notifications missed because the subscriber fell
+     *         too far behind.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return The number of notifications published but not delivered yet.
+     */
+    public long getLag() {
+        return lag;
+    }
+
+}
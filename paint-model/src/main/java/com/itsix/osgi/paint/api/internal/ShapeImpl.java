@@ -0,0 +1,82 @@
+package com.itsix.osgi.paint.api.internal;
+
+import com.itsix.osgi.paint.api.Shape;
+
+/**
+ * Immutable shape record held by the canvas model. Instances are shared
+ * between readers, so they must never be modified once published.
+ */
+public class ShapeImpl implements Shape {
+
+    private final long id;
+    private final String name;
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+
+    public ShapeImpl(long id, String name, int x, int y, int width,
+            int height) {
+        this.id = id;
+        this.name = name;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getX() {
+        return x;
+    }
+
+    @Override
+    public int getY() {
+        return y;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    public ShapeImpl moveTo(int x, int y) {
+        return new ShapeImpl(id, name, x, y, width, height);
+    }
+
+    /**
+     * Shapes are equal when they have the same name and are centered on the
+     * same position, whatever their id. Use the id to tell shapes apart.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof Shape) {
+            Shape other = (Shape) obj;
+            return (name == null ? other.getName() == null
+                    : name.equals(other.getName())) && x == other.getX()
+                    && y == other.getY();
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((name == null ? 0 : name.hashCode()) * 31 + x) * 31 + y;
+    }
+
+}
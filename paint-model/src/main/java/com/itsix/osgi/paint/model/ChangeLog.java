@@ -0,0 +1,82 @@
+package com.itsix.osgi.paint.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.itsix.osgi.paint.api.ShapeChange;
+import com.itsix.osgi.paint.api.ShapeChanges;
+
+/**
+ * Bounded log of the most recent changes of a {@link ShapeStore}, indexed by
+ * canvas version. Appends are serialized by the store; reads never lock and
+ * detect entries overwritten under their feet.
+ */
+class ChangeLog {
+
+    private final int capacity;
+    private final AtomicReferenceArray<ShapeChange> entries;
+    private volatile long version;
+
+    ChangeLog(int capacity) {
+        this.capacity = capacity;
+        this.entries = new AtomicReferenceArray<>(capacity);
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Records a change, which must carry the version following the current
+     * one.
+     */
+    void append(ShapeChange change) {
+        entries.set(slot(change.getVersion()), change);
+        version = change.getVersion();
+    }
+
+    /**
+     * Moves to the given version without recording the changes leading to it,
+     * so that no older version can be caught up from.
+     */
+    void reset(long newVersion) {
+        for (int i = 0; i < capacity; i++) {
+            entries.set(i, null);
+        }
+        version = newVersion;
+    }
+
+    ShapeChanges since(long since) {
+        long current = version;
+        if (since >= current) {
+            return new ShapeChanges(current, since == current,
+                    Collections.<ShapeChange> emptyList());
+        }
+        // Versions start at 0, so a negative one was never seen.
+        if (since < 0 || current - since > capacity) {
+            return incomplete(current);
+        }
+        List<ShapeChange> changes = new ArrayList<>((int) (current - since));
+        for (long v = since + 1; v <= current; v++) {
+            ShapeChange change = entries.get(slot(v));
+            if (change == null || change.getVersion() != v) {
+                // Overwritten while reading, the reader is too far behind.
+                return incomplete(current);
+            }
+            changes.add(change);
+        }
+        return new ShapeChanges(current, true, changes);
+    }
+
+    private ShapeChanges incomplete(long current) {
+        return new ShapeChanges(current, false,
+                Collections.<ShapeChange> emptyList());
+    }
+
+    private int slot(long version) {
+        return (int) (version % capacity);
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.itsix.osgi.paint.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.itsix.osgi.paint.api.DeletionSubscriber;
+import com.itsix.osgi.paint.api.Subscriber;
+import com.itsix.osgi.paint.api.SubscriberStats;
+import com.itsix.osgi.paint.api.internal.ShapeImpl;
+
+/**
+ * Delivers the changes of the canvas model to the registered
+ * <tt>Subscriber</tt> services.
+ * <p>
+ * Changes are published into a bounded ring without ever waiting, since the
+ * model publishes them while holding its write lock. Each subscriber has its
+ * own delivery thread and its own position in the ring, and is handed the
+ * events in batches. A subscriber that falls more than a ring behind skips the
+ * overwritten events, which are counted as dropped, so a slow subscriber can
+ * never hold up the UI or the REST writers.
+ * <p>
+ * Deletions are only delivered to subscribers implementing
+ * <tt>DeletionSubscriber</tt>; the others skip them.
+ **/
+public class EventDispatcher implements ShapeStoreListener {
+
+    private static final int CAPACITY = 1 << 16;
+    private static final int MASK = CAPACITY - 1;
+    private static final int BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = 100000000L;
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private static final int ADDED = 0;
+    private static final int MODIFIED = 1;
+    private static final int DELETED = 2;
+
+    private final AtomicReferenceArray<Event> ring = new AtomicReferenceArray<Event>(
+            CAPACITY);
+    // Sequence of the next event to publish; only written by the model's
+    // writer, under its lock.
+    private volatile long published;
+    private final List<Delivery> deliveries = new CopyOnWriteArrayList<Delivery>();
+
+    public void shapeAdded(ShapeImpl shape) {
+        publish(ADDED, shape);
+    }
+
+    public void shapeMoved(ShapeImpl previous, ShapeImpl current) {
+        publish(MODIFIED, current);
+    }
+
+    public void shapeRemoved(ShapeImpl shape) {
+        publish(DELETED, shape);
+    }
+
+    private void publish(int type, ShapeImpl shape) {
+        if (deliveries.isEmpty()) {
+            return;
+        }
+        long sequence = published;
+        ring.set((int) (sequence & MASK), new Event(sequence, type, shape));
+        published = sequence + 1;
+        for (Delivery delivery : deliveries) {
+            delivery.wakeUp();
+        }
+    }
+
+    /**
+     * Starts delivering the changes made from now on to the given subscriber.
+     **/
+    public void register(Subscriber subscriber) {
+        Delivery delivery = new Delivery(subscriber, published);
+        deliveries.add(delivery);
+        delivery.start();
+    }
+
+    public void unregister(Subscriber subscriber) {
+        for (Delivery delivery : deliveries) {
+            if (delivery.subscriber == subscriber) {
+                deliveries.remove(delivery);
+                delivery.shutdown();
+            }
+        }
+    }
+
+    public void close() {
+        for (Delivery delivery : deliveries) {
+            deliveries.remove(delivery);
+            delivery.shutdown();
+        }
+    }
+
+    public List<SubscriberStats> getStatistics() {
+        List<SubscriberStats> statistics = new ArrayList<SubscriberStats>();
+        long head = published;
+        for (Delivery delivery : deliveries) {
+            statistics.add(new SubscriberStats(
+                    delivery.subscriber.getClass().getName(),
+                    delivery.delivered.get(), delivery.dropped.get(),
+                    Math.max(0, head - delivery.cursor)));
+        }
+        return statistics;
+    }
+
+    private static class Event {
+        private final long sequence;
+        private final int type;
+        private final ShapeImpl shape;
+
+        Event(long sequence, int type, ShapeImpl shape) {
+            this.sequence = sequence;
+            this.type = type;
+            this.shape = shape;
+        }
+    }
+
+    private class Delivery extends Thread {
+        private final Subscriber subscriber;
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile long cursor;
+        private volatile boolean parked;
+        private volatile boolean running = true;
+
+        Delivery(Subscriber subscriber, long cursor) {
+            super("paint-subscriber-" + THREAD_COUNT.incrementAndGet());
+            setDaemon(true);
+            this.subscriber = subscriber;
+            this.cursor = cursor;
+        }
+
+        void wakeUp() {
+            if (parked) {
+                parked = false;
+                LockSupport.unpark(this);
+            }
+        }
+
+        void shutdown() {
+            running = false;
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                long next = cursor;
+                long available = published;
+                if (next == available) {
+                    parked = true;
+                    // Checked again, a publication may have missed the flag.
+                    if (published == next && running) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    parked = false;
+                    continue;
+                }
+                if (available - next > CAPACITY) {
+                    // Lapped: everything older than a ring is gone.
+                    dropped.addAndGet(available - CAPACITY - next);
+                    next = available - CAPACITY;
+                }
+                long end = Math.min(available, next + BATCH_SIZE);
+                while (next < end) {
+                    Event event = ring.get((int) (next & MASK));
+                    if (event == null || event.sequence != next) {
+                        // Overwritten while we were catching up.
+                        break;
+                    }
+                    deliver(event);
+                    next++;
+                }
+                cursor = next;
+            }
+        }
+
+        private void deliver(Event event) {
+            try {
+                switch (event.type) {
+                case ADDED:
+                    subscriber.shapeAdded(event.shape);
+                    break;
+                case MODIFIED:
+                    subscriber.shapeModified(event.shape);
+                    break;
+                default:
+                    if (!(subscriber instanceof DeletionSubscriber)) {
+                        return;
+                    }
+                    ((DeletionSubscriber) subscriber).shapeDeleted(event.shape);
+                    break;
+                }
+                delivered.incrementAndGet();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+}
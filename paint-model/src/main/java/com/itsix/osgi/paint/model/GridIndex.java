@@ -0,0 +1,302 @@
+package com.itsix.osgi.paint.model;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.itsix.osgi.paint.api.internal.ShapeImpl;
+
+/**
+ * Uniform grid over shape centers, used to answer point and rectangle lookups
+ * without scanning the whole canvas. Each cell holds the sorted ids of the
+ * shapes centered in it, so candidates come out in z-order.
+ * <p>
+ * Lookups never lock, while updates are expected to be serialized by the owner
+ * of the index. Since ids only grow, a new shape is appended to its cell in
+ * place; any other change replaces the cell with an updated copy, so readers
+ * always see a consistent cell.
+ */
+class GridIndex {
+
+    private static final long[] EMPTY = new long[0];
+
+    private final int cellSize;
+    private final ConcurrentHashMap<Long, Cell> cells = new ConcurrentHashMap<>();
+
+    GridIndex(int cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    void insert(long id, int x, int y) {
+        Long key = key(cell(x), cell(y));
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            cell = new Cell(new long[4], 0);
+            cell.append(id);
+            cells.put(key, cell);
+            return;
+        }
+        int size = cell.size;
+        long[] ids = cell.ids;
+        if (size == 0 || ids[size - 1] < id) {
+            if (size < ids.length) {
+                cell.append(id);
+            } else {
+                Cell grown = new Cell(Arrays.copyOf(ids, size * 2), size);
+                grown.append(id);
+                cells.put(key, grown);
+            }
+            return;
+        }
+        int index = Arrays.binarySearch(ids, 0, size, id);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+        long[] updated = new long[Math.max(4, (size + 1) * 3 / 2)];
+        System.arraycopy(ids, 0, updated, 0, index);
+        updated[index] = id;
+        System.arraycopy(ids, index, updated, index + 1, size - index);
+        cells.put(key, new Cell(updated, size + 1));
+    }
+
+    /**
+     * Replaces the content of the index with the given shapes, which must be
+     * in ascending id order. Cheaper than inserting them one at a time, since
+     * every cell is allocated once, at its final size.
+     */
+    void load(List<ShapeImpl> shapes) {
+        CellNumbers numbers = new CellNumbers();
+        int[] cellOf = new int[shapes.size()];
+        for (int i = 0; i < cellOf.length; i++) {
+            ShapeImpl shape = shapes.get(i);
+            cellOf[i] = numbers.count(
+                    pack(cell(shape.getX()), cell(shape.getY())));
+        }
+        long[][] ids = new long[numbers.size][];
+        for (int n = 0; n < numbers.size; n++) {
+            ids[n] = new long[Math.max(4, numbers.counts[n])];
+        }
+        int[] filled = new int[numbers.size];
+        for (int i = 0; i < cellOf.length; i++) {
+            int n = cellOf[i];
+            ids[n][filled[n]++] = shapes.get(i).getId();
+        }
+        cells.clear();
+        for (int n = 0; n < numbers.size; n++) {
+            cells.put(numbers.keys[n], new Cell(ids[n], filled[n]));
+        }
+    }
+
+    void remove(long id, int x, int y) {
+        Long key = key(cell(x), cell(y));
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            return;
+        }
+        int size = cell.size;
+        int index = Arrays.binarySearch(cell.ids, 0, size, id);
+        if (index < 0) {
+            return;
+        }
+        if (size == 1) {
+            cells.remove(key);
+            return;
+        }
+        long[] updated = new long[Math.max(4, size)];
+        System.arraycopy(cell.ids, 0, updated, 0, index);
+        System.arraycopy(cell.ids, index + 1, updated, index,
+                size - index - 1);
+        cells.put(key, new Cell(updated, size - 1));
+    }
+
+    void move(long id, int fromX, int fromY, int toX, int toY) {
+        if (cell(fromX) == cell(toX) && cell(fromY) == cell(toY)) {
+            return;
+        }
+        remove(id, fromX, fromY);
+        insert(id, toX, toY);
+    }
+
+    /**
+     * @return The ids of the shapes centered in the cell containing the given
+     *         point, in ascending order.
+     */
+    long[] cellAt(int x, int y) {
+        Cell cell = cells.get(key(cell(x), cell(y)));
+        return cell == null ? EMPTY : Arrays.copyOf(cell.ids, cell.size);
+    }
+
+    /**
+     * Collects the ids of the shapes centered anywhere in the cells overlapping
+     * the given rectangle. The result is sorted in ascending order and may
+     * contain shapes that lie outside the rectangle itself.
+     */
+    long[] candidates(int x1, int y1, int x2, int y2) {
+        int cx1 = cell(Math.min(x1, x2));
+        int cx2 = cell(Math.max(x1, x2));
+        int cy1 = cell(Math.min(y1, y2));
+        int cy2 = cell(Math.max(y1, y2));
+        long area = ((long) cx2 - cx1 + 1) * ((long) cy2 - cy1 + 1);
+        if (area == 1) {
+            Cell cell = cells.get(key(cx1, cy1));
+            return cell == null ? EMPTY : Arrays.copyOf(cell.ids, cell.size);
+        }
+        Collector collector = new Collector();
+        if (area > cells.size()) {
+            // Cheaper to walk the occupied cells than the requested ones.
+            for (Map.Entry<Long, Cell> entry : cells.entrySet()) {
+                long key = entry.getKey();
+                int cx = (int) (key >> 32);
+                int cy = (int) key;
+                if (cx >= cx1 && cx <= cx2 && cy >= cy1 && cy <= cy2) {
+                    collector.add(entry.getValue());
+                }
+            }
+        } else {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                for (int cy = cy1; cy <= cy2; cy++) {
+                    Cell cell = cells.get(key(cx, cy));
+                    if (cell != null) {
+                        collector.add(cell);
+                    }
+                }
+            }
+        }
+        return collector.sorted();
+    }
+
+    private int cell(int coordinate) {
+        // Floor division, so that negative coordinates get their own cells.
+        int cell = coordinate / cellSize;
+        if (coordinate % cellSize < 0) {
+            cell--;
+        }
+        return cell;
+    }
+
+    private static Long key(int cx, int cy) {
+        return pack(cx, cy);
+    }
+
+    private static long pack(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    /**
+     * Sorted ids of the shapes centered in a cell. Only the first
+     * <tt>size</tt> ids are valid; ids are appended by writing the slot first
+     * and publishing the new size after it.
+     */
+    private static class Cell {
+        private final long[] ids;
+        private volatile int size;
+
+        Cell(long[] ids, int size) {
+            this.ids = ids;
+            this.size = size;
+        }
+
+        void append(long id) {
+            int current = size;
+            ids[current] = id;
+            size = current + 1;
+        }
+    }
+
+    /**
+     * Numbers the distinct cell keys in order of appearance and counts the
+     * shapes of each, using an open-addressing table of primitive keys.
+     */
+    private static class CellNumbers {
+        private long[] table = new long[1024];
+        private int[] tableNumbers = new int[1024];
+        private long[] keys = new long[256];
+        private int[] counts = new int[256];
+        private int size;
+
+        /**
+         * Counts one more shape in the cell with the given key.
+         *
+         * @return The number of the cell.
+         */
+        int count(long key) {
+            int number = numberOf(key, table, tableNumbers);
+            if (number < 0) {
+                number = size++;
+                if (number == keys.length) {
+                    keys = Arrays.copyOf(keys, number * 2);
+                    counts = Arrays.copyOf(counts, number * 2);
+                }
+                keys[number] = key;
+                put(key, number, table, tableNumbers);
+                if (size * 2 > table.length) {
+                    rehash();
+                }
+            }
+            counts[number]++;
+            return number;
+        }
+
+        private void rehash() {
+            long[] grownTable = new long[table.length * 2];
+            int[] grownNumbers = new int[table.length * 2];
+            for (int n = 0; n < size; n++) {
+                put(keys[n], n, grownTable, grownNumbers);
+            }
+            table = grownTable;
+            tableNumbers = grownNumbers;
+        }
+
+        private static int numberOf(long key, long[] table, int[] numbers) {
+            int mask = table.length - 1;
+            for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+                if (numbers[i] == 0) {
+                    return -1;
+                }
+                if (table[i] == key) {
+                    return numbers[i] - 1;
+                }
+            }
+        }
+
+        private static void put(long key, int number, long[] table,
+                int[] numbers) {
+            int mask = table.length - 1;
+            int i = hash(key) & mask;
+            while (numbers[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = key;
+            // Shifted by one, zero marks a free slot.
+            numbers[i] = number + 1;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9e3779b97f4a7c15L;
+            return (int) (h >>> 32);
+        }
+    }
+
+    private static class Collector {
+        private long[] ids = EMPTY;
+        private int count;
+
+        void add(Cell cell) {
+            int size = cell.size;
+            if (count + size > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(ids.length * 2, count + size));
+            }
+            System.arraycopy(cell.ids, 0, ids, count, size);
+            count += size;
+        }
+
+        long[] sorted() {
+            long[] result = Arrays.copyOf(ids, count);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.itsix.osgi.paint.model;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hash index from shape id to storage slot, with open addressing over
+ * primitive arrays. Lookups never lock, while updates are expected to be
+ * serialized by the owner of the index.
+ * <p>
+ * An id is never added again once removed, so a lookup racing with an update
+ * finds either nothing or a slot that held the shape at some point; callers
+ * check the id stored in the slot.
+ */
+class IdIndex {
+
+    private static final long FREE = 0;
+    private static final long REMOVED = -1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    // Live ids and removed markers, only used by the writer.
+    private int size;
+    private int used;
+
+    /**
+     * @return The slot of the shape with the given id, or <tt>-1</tt>.
+     */
+    int get(long id) {
+        Table current = table;
+        int mask = current.keys.length() - 1;
+        for (int i = hash(id) & mask;; i = (i + 1) & mask) {
+            long key = current.keys.get(i);
+            if (key == id) {
+                return current.slots.get(i);
+            }
+            if (key == FREE) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Adds an id that was never added before.
+     */
+    void put(long id, int slot) {
+        if ((used + 1) * 4 > table.keys.length() * 3) {
+            rehash();
+        }
+        Table current = table;
+        int mask = current.keys.length() - 1;
+        int i = hash(id) & mask;
+        while (current.keys.get(i) > FREE) {
+            i = (i + 1) & mask;
+        }
+        if (current.keys.get(i) == FREE) {
+            used++;
+        }
+        // The slot first, so that a reader finding the id finds its slot.
+        current.slots.lazySet(i, slot);
+        current.keys.set(i, id);
+        size++;
+    }
+
+    void remove(long id) {
+        Table current = table;
+        int mask = current.keys.length() - 1;
+        for (int i = hash(id) & mask;; i = (i + 1) & mask) {
+            long key = current.keys.get(i);
+            if (key == id) {
+                current.keys.set(i, REMOVED);
+                size--;
+                return;
+            }
+            if (key == FREE) {
+                return;
+            }
+        }
+    }
+
+    void clear() {
+        table = new Table(INITIAL_CAPACITY);
+        size = 0;
+        used = 0;
+    }
+
+    /**
+     * Rebuilds the table without removed markers, growing it if it is more
+     * than half full of live ids.
+     */
+    private void rehash() {
+        Table current = table;
+        int capacity = current.keys.length();
+        while (size * 2 >= capacity) {
+            capacity *= 2;
+        }
+        Table rebuilt = new Table(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < current.keys.length(); j++) {
+            long key = current.keys.get(j);
+            if (key > FREE) {
+                int i = hash(key) & mask;
+                while (rebuilt.keys.get(i) != FREE) {
+                    i = (i + 1) & mask;
+                }
+                rebuilt.keys.lazySet(i, key);
+                rebuilt.slots.lazySet(i, current.slots.get(j));
+            }
+        }
+        used = size;
+        table = rebuilt;
+    }
+
+    private static int hash(long id) {
+        long h = id * 0x9e3779b97f4a7c15L;
+        return (int) (h >>> 32);
+    }
+
+    private static class Table {
+        private final AtomicLongArray keys;
+        private final AtomicIntegerArray slots;
+
+        Table(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            slots = new AtomicIntegerArray(capacity);
+        }
+    }
+
+}
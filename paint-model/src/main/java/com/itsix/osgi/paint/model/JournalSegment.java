@@ -0,0 +1,173 @@
+package com.itsix.osgi.paint.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import com.itsix.osgi.paint.api.internal.MappedBuffers;
+
+/**
+ * A file of the journal, memory-mapped at a fixed size. Records are appended
+ * as their length, their payload and the CRC32 of the payload. The length is
+ * written last, so a record torn by a crash reads as the end of the segment.
+ * <p>
+ * Appends are expected to be serialized by the owner of the segment, while
+ * {@link #force()} may be called from any thread. Closing a segment releases
+ * its mapping right away, so it must not be appended to afterwards.
+ */
+class JournalSegment {
+
+    interface Visitor {
+        void record(ByteBuffer payload);
+    }
+
+    private static final int MAGIC = 0x504a524e;
+    private static final int HEADER_SIZE = 4 + 8;
+    // Length and CRC of a record, plus the zero length ending the segment.
+    private static final int RECORD_OVERHEAD = 4 + 4 + 4;
+
+    private final long generation;
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private volatile int position;
+    // Guarded by this.
+    private int forced;
+    private boolean closed;
+
+    private JournalSegment(long generation, RandomAccessFile file,
+            MappedByteBuffer buffer, int position) {
+        this.generation = generation;
+        this.file = file;
+        this.buffer = buffer;
+        this.position = position;
+        this.forced = position;
+    }
+
+    /**
+     * Creates an empty segment, replacing any existing file.
+     */
+    static JournalSegment create(File path, long generation, int size)
+            throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength(0);
+            file.setLength(size);
+            MappedByteBuffer buffer = file.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putLong(4, generation);
+            buffer.force();
+            return new JournalSegment(generation, file, buffer, HEADER_SIZE);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads every intact record of the given segment file, in order.
+     *
+     * @return The generation of the segment.
+     * @throws IOException
+     *             If the file is not a journal segment.
+     */
+    static long replay(File path, Visitor visitor) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            MappedByteBuffer buffer = file.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            try {
+                return replay(path, buffer, visitor);
+            } finally {
+                MappedBuffers.unmap(buffer);
+            }
+        }
+    }
+
+    private static long replay(File path, MappedByteBuffer buffer,
+            Visitor visitor) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a journal segment: " + path);
+        }
+        long generation = buffer.getLong(4);
+        CRC32 crc = new CRC32();
+        byte[] bytes = new byte[256];
+        int position = HEADER_SIZE;
+        while (position + 8 <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0
+                    || length > buffer.capacity() - position - 8) {
+                break;
+            }
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            buffer.position(position + 4);
+            buffer.get(bytes, 0, length);
+            crc.reset();
+            crc.update(bytes, 0, length);
+            if ((int) crc.getValue() != buffer
+                    .getInt(position + 4 + length)) {
+                break;
+            }
+            visitor.record(ByteBuffer.wrap(bytes, 0, length));
+            position += 4 + length + 4;
+        }
+        return generation;
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return The number of bytes used so far.
+     */
+    int size() {
+        return position;
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @return <tt>false</tt> if the segment is full.
+     */
+    boolean append(byte[] payload, int length, int crc) {
+        int start = position;
+        if (length + RECORD_OVERHEAD > buffer.capacity() - start) {
+            return false;
+        }
+        buffer.position(start + 4);
+        buffer.put(payload, 0, length);
+        buffer.putInt(crc);
+        buffer.putInt(start, length);
+        position = start + 4 + length + 4;
+        return true;
+    }
+
+    /**
+     * Writes the records appended so far to the storage device, unless they
+     * already are.
+     */
+    synchronized void force() {
+        int end = position;
+        if (!closed && end != forced) {
+            buffer.force();
+            forced = end;
+        }
+    }
+
+    synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        force();
+        closed = true;
+        MappedBuffers.unmap(buffer);
+        file.close();
+    }
+
+}
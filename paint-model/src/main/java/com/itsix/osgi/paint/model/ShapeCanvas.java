@@ -0,0 +1,219 @@
+package com.itsix.osgi.paint.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.itsix.osgi.paint.api.ColumnarSnapshot;
+import com.itsix.osgi.paint.api.Shape;
+import com.itsix.osgi.paint.api.ShapeResult;
+import com.itsix.osgi.paint.api.StartupTrace;
+import com.itsix.osgi.paint.api.internal.ShapeImpl;
+
+/**
+ * The canvas behind a <tt>PaintApi</tt>: a {@link ShapeStore} whose shapes
+ * must lie within some {@link Bounds}, saved by a {@link ShapeJournal}. It
+ * checks and applies the changes; showing them, if anything, is left to the
+ * caller, which is handed the changed shapes.
+ */
+public class ShapeCanvas {
+
+    /**
+     * Where shapes may be placed on the canvas.
+     */
+    public interface Bounds {
+
+        /**
+         * @return Why no shape can be centered on the given position, or
+         *         <tt>null</tt> if it can.
+         */
+        String check(int x, int y);
+    }
+
+    private final ShapeStore store;
+    private final int shapeSize;
+    private final Bounds bounds;
+    private ShapeJournal journal;
+
+    /**
+     * @param shapeSize
+     *            The width and height of the shapes added to the canvas.
+     * @param changeLogSize
+     *            The number of changes the store keeps for readers catching
+     *            up.
+     */
+    public ShapeCanvas(int shapeSize, int changeLogSize, Bounds bounds) {
+        this.store = new ShapeStore(shapeSize, changeLogSize);
+        this.shapeSize = shapeSize;
+        this.bounds = bounds;
+    }
+
+    public ShapeStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return Why the given shape cannot be added to the canvas, or
+     *         <tt>null</tt> if it can.
+     */
+    public String checkShape(Shape shape) {
+        return shape == null ? "Missing shape"
+                : checkShape(shape.getName(), shape.getX(), shape.getY());
+    }
+
+    private String checkShape(String name, int x, int y) {
+        if (name == null) {
+            return "Missing shape name";
+        }
+        return bounds.check(x, y);
+    }
+
+    /**
+     * @return The added shape, with its id.
+     * @throws IllegalArgumentException
+     *             If the shape cannot be added to the canvas.
+     */
+    public ShapeImpl add(Shape shape) {
+        String error = checkShape(shape);
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+        return store.add(shape.getName(), shape.getX(), shape.getY(),
+                shapeSize, shapeSize);
+    }
+
+    /**
+     * @return The moved shape, or <tt>null</tt> if there is no shape with the
+     *         given id.
+     * @throws IllegalArgumentException
+     *             If no shape can be centered on the given position.
+     */
+    public ShapeImpl move(long id, int x, int y) {
+        String error = bounds.check(x, y);
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+        return store.move(id, x, y);
+    }
+
+    /**
+     * Adds all the given shapes that fit on the canvas.
+     *
+     * @param added
+     *            Receives the added shapes.
+     * @return One result per shape, in the same order.
+     */
+    public List<ShapeResult> addShapes(List<? extends Shape> shapes,
+            List<ShapeImpl> added) {
+        List<ShapeResult> results = new ArrayList<ShapeResult>(shapes.size());
+        for (Shape shape : shapes) {
+            String error = checkShape(shape);
+            if (error != null) {
+                results.add(ShapeResult.failed(error));
+            } else {
+                ShapeImpl impl = store.add(shape.getName(), shape.getX(),
+                        shape.getY(), shapeSize, shapeSize);
+                added.add(impl);
+                results.add(ShapeResult.ok(impl.getId()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Deletes all the shapes equal to any of the given ones.
+     *
+     * @param removed
+     *            Receives the removed shapes.
+     * @return One result per shape, in the same order.
+     */
+    public List<ShapeResult> deleteShapes(List<? extends Shape> shapes,
+            List<ShapeImpl> removed) {
+        List<ShapeResult> results = new ArrayList<ShapeResult>(shapes.size());
+        for (Shape shape : shapes) {
+            List<ShapeImpl> matches = removeAll(shape);
+            if (matches.isEmpty()) {
+                results.add(ShapeResult.failed("Not found"));
+            } else {
+                removed.addAll(matches);
+                results.add(ShapeResult.ok());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return The removed shapes, none for a <tt>null</tt> shape.
+     */
+    public List<ShapeImpl> removeAll(Shape shape) {
+        return shape == null ? new ArrayList<ShapeImpl>()
+                : store.removeAll(shape);
+    }
+
+    /**
+     * Adds the shapes of the given columnar snapshot that fit on the canvas.
+     * Shapes without a size get the default one.
+     *
+     * @return The added shapes.
+     * @throws IllegalArgumentException
+     *             If the buffer does not hold a valid snapshot.
+     */
+    public List<ShapeImpl> importSnapshot(ByteBuffer snapshot) {
+        ColumnarSnapshot shapes = ColumnarSnapshot.read(snapshot);
+        List<ShapeImpl> added = new ArrayList<ShapeImpl>(shapes.size());
+        for (int i = 0; i < shapes.size(); i++) {
+            String name = shapes.getName(i);
+            int x = shapes.getX(i);
+            int y = shapes.getY(i);
+            if (checkShape(name, x, y) == null) {
+                added.add(store.add(name, x, y, size(shapes.getWidth(i)),
+                        size(shapes.getHeight(i))));
+            }
+        }
+        return added;
+    }
+
+    private int size(int size) {
+        return size > 0 ? size : shapeSize;
+    }
+
+    /**
+     * Restores the canvas saved in the given directory and keeps saving it
+     * there. Failures are reported, leaving the canvas unsaved.
+     *
+     * @param directory
+     *            The directory of the journal, or <tt>null</tt> if there is
+     *            no file system to save the canvas to.
+     * @param owner
+     *            The name the restoration is traced under.
+     */
+    public void openJournal(File directory, String owner) {
+        if (directory == null) {
+            System.out.println("No file system support, the canvas will not"
+                    + " be saved");
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            journal = ShapeJournal.open(directory, store);
+            System.out.println("Restored " + store.size() + " shapes in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+            StartupTrace.markSince(owner + ": journal restored", start);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Saves the last changes and stops saving the canvas, if it was.
+     */
+    public void closeJournal() {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.itsix.osgi.paint.model;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed capacity storage of shapes as primitive columns, one slot per shape:
+ * the id (<tt>0</tt> for a free slot), the type id and the center and size.
+ * <p>
+ * Writes are expected to be serialized by the owner of the columns. Reads
+ * never lock: every slot has a sequence number, packed with the type id,
+ * which is odd while the slot is being written, and a read is retried if the
+ * sequence changed under its feet.
+ */
+class ShapeColumns {
+
+    private final AtomicLongArray ids;
+    // Sequence number in the high 16 bits, type id in the low ones.
+    private final AtomicIntegerArray meta;
+    private final AtomicIntegerArray xs;
+    private final AtomicIntegerArray ys;
+    private final AtomicIntegerArray widths;
+    private final AtomicIntegerArray heights;
+
+    ShapeColumns(int capacity) {
+        ids = new AtomicLongArray(capacity);
+        meta = new AtomicIntegerArray(capacity);
+        xs = new AtomicIntegerArray(capacity);
+        ys = new AtomicIntegerArray(capacity);
+        widths = new AtomicIntegerArray(capacity);
+        heights = new AtomicIntegerArray(capacity);
+    }
+
+    int capacity() {
+        return ids.length();
+    }
+
+    /**
+     * @return A copy of these columns with the given capacity.
+     */
+    ShapeColumns grow(int capacity) {
+        ShapeColumns grown = new ShapeColumns(capacity);
+        for (int slot = 0; slot < ids.length(); slot++) {
+            grown.ids.lazySet(slot, ids.get(slot));
+            grown.meta.lazySet(slot, meta.get(slot));
+            grown.xs.lazySet(slot, xs.get(slot));
+            grown.ys.lazySet(slot, ys.get(slot));
+            grown.widths.lazySet(slot, widths.get(slot));
+            grown.heights.lazySet(slot, heights.get(slot));
+        }
+        return grown;
+    }
+
+    void write(int slot, long id, short type, int x, int y, int width,
+            int height) {
+        int sequence = begin(slot, type);
+        ids.lazySet(slot, id);
+        xs.lazySet(slot, x);
+        ys.lazySet(slot, y);
+        widths.lazySet(slot, width);
+        heights.lazySet(slot, height);
+        end(slot, sequence, type);
+    }
+
+    void move(int slot, int x, int y) {
+        int type = meta.get(slot) & 0xffff;
+        int sequence = begin(slot, type);
+        xs.lazySet(slot, x);
+        ys.lazySet(slot, y);
+        end(slot, sequence, type);
+    }
+
+    void free(int slot) {
+        int sequence = begin(slot, 0);
+        ids.lazySet(slot, 0);
+        end(slot, sequence, 0);
+    }
+
+    /**
+     * Reads the shape in the given slot into the given view.
+     *
+     * @return <tt>false</tt> if the slot is free.
+     */
+    boolean read(int slot, ShapeView view, ShapeTypes types) {
+        while (true) {
+            int before = meta.get(slot);
+            if ((before & 0x10000) != 0) {
+                Thread.yield();
+                continue;
+            }
+            long id = ids.get(slot);
+            int x = xs.get(slot);
+            int y = ys.get(slot);
+            int width = widths.get(slot);
+            int height = heights.get(slot);
+            if (meta.get(slot) != before) {
+                continue;
+            }
+            if (id == 0) {
+                return false;
+            }
+            view.id = id;
+            view.name = types.name(before & 0xffff);
+            view.x = x;
+            view.y = y;
+            view.width = width;
+            view.height = height;
+            return true;
+        }
+    }
+
+    long idAt(int slot) {
+        return ids.get(slot);
+    }
+
+    int typeAt(int slot) {
+        return meta.get(slot) & 0xffff;
+    }
+
+    private int begin(int slot, int type) {
+        int sequence = (meta.get(slot) >>> 16) + 1;
+        meta.set(slot, (sequence << 16) | type);
+        return sequence;
+    }
+
+    private void end(int slot, int sequence, int type) {
+        meta.set(slot, ((sequence + 1) << 16) | type);
+    }
+
+}
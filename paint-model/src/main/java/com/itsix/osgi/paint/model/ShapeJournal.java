@@ -0,0 +1,550 @@
+package com.itsix.osgi.paint.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+import com.itsix.osgi.paint.api.internal.ShapeImpl;
+
+/**
+ * Keeps a {@link ShapeStore} on disk, so that the canvas survives restarts and
+ * crashes.
+ * <p>
+ * Every change is appended to a memory-mapped journal segment while the store
+ * holds its write lock, which costs a memory copy. A committer thread forces
+ * the appended records to the storage device every few milliseconds, so a
+ * single sync covers all the changes made in between; a change may therefore
+ * be lost if the machine, not just the JVM, fails within that window.
+ * <p>
+ * Once a segment is half full, or some time after the last snapshot, the
+ * journal moves on to a new segment and the committer writes a snapshot of
+ * the store, then deletes the older segments and snapshots. Recovery loads
+ * the latest snapshot and replays the segments written after it.
+ * <p>
+ * Only moving on to the new segment holds up the writers of the store: the
+ * committer copies the store afterwards without locking it. The copy may
+ * therefore already include some of the changes recorded in the new segment;
+ * replaying them on top of it gives the same result, so recovery does not
+ * need an exact cut.
+ * <p>
+ * A journal holds an exclusive lock on its directory while open, so that two
+ * journals never write the same segments.
+ */
+public class ShapeJournal implements ShapeStoreListener {
+
+    private static final int SEGMENT_SIZE = 64 << 20;
+    private static final int COMPACTION_THRESHOLD = SEGMENT_SIZE / 2;
+    private static final long COMMIT_INTERVAL_NANOS = TimeUnit.MILLISECONDS
+            .toNanos(10);
+    private static final long SNAPSHOT_INTERVAL_NANOS = TimeUnit.MINUTES
+            .toNanos(5);
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String LOCK_FILE = "lock";
+
+    private static final byte ADDED = 1;
+    private static final byte MOVED = 2;
+    private static final byte REMOVED = 3;
+
+    private final File directory;
+    private final ShapeStore store;
+    private final FileLock lock;
+    private final Committer committer = new Committer();
+    // Segments replaced by a newer one, still to be forced and closed.
+    private final ConcurrentLinkedQueue<JournalSegment> retired = new ConcurrentLinkedQueue<>();
+    // Snapshot due since the current segment was started, still to be
+    // written.
+    private volatile Checkpoint pending;
+    private volatile JournalSegment segment;
+    // Guarded by the write lock of the store.
+    private final CRC32 crc = new CRC32();
+    private final Map<String, byte[]> encodedNames = new HashMap<>();
+    private byte[] record = new byte[256];
+    private boolean failed;
+
+    private ShapeJournal(File directory, ShapeStore store, FileLock lock) {
+        this.directory = directory;
+        this.store = store;
+        this.lock = lock;
+    }
+
+    /**
+     * Restores the given store from the journal kept in the given directory,
+     * then starts recording its changes there.
+     *
+     * @param store
+     *            A store that is not being changed yet.
+     * @throws IOException
+     *             If the directory cannot be read or written, or if another
+     *             journal, in this process or another, is using it.
+     */
+    public static ShapeJournal open(File directory, ShapeStore store)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        ShapeJournal journal = new ShapeJournal(directory, store,
+                lock(directory));
+        try {
+            long generation = journal.recover();
+            journal.segment = JournalSegment.create(
+                    journal.file(SEGMENT_PREFIX, generation), generation,
+                    SEGMENT_SIZE);
+        } catch (IOException | RuntimeException e) {
+            journal.unlock();
+            throw e;
+        }
+        store.addListener(journal);
+        journal.committer.start();
+        return journal;
+    }
+
+    /**
+     * Stops recording changes, once all of them are on the storage device.
+     */
+    public void close() {
+        store.removeListener(this);
+        // Waits for the changes already being recorded, since the segment is
+        // unmapped once closed.
+        store.locked(new Runnable() {
+            public void run() {
+            }
+        });
+        committer.shutdown();
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            commit();
+            segment.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        unlock();
+    }
+
+    /**
+     * Takes the lock of the given directory.
+     *
+     * @throws IOException
+     *             If it is already held.
+     */
+    private static FileLock lock(File directory) throws IOException {
+        FileChannel channel = FileChannel.open(
+                new File(directory, LOCK_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = null;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by another journal of this process.
+        } finally {
+            if (lock == null) {
+                channel.close();
+            }
+        }
+        if (lock == null) {
+            throw new IOException(directory + " is used by another journal");
+        }
+        return lock;
+    }
+
+    private void unlock() {
+        try {
+            // Releases the lock.
+            lock.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void shapeAdded(ShapeImpl shape) {
+        byte[] name = encodedNames.get(shape.getName());
+        if (name == null) {
+            name = SnapshotFile.encode(shape.getName());
+            encodedNames.put(shape.getName(), name);
+        }
+        ByteBuffer payload = start(ADDED, shape.getId(), 4 + name.length + 16);
+        payload.putInt(name.length).put(name).putInt(shape.getX())
+                .putInt(shape.getY()).putInt(shape.getWidth())
+                .putInt(shape.getHeight());
+        append(payload);
+    }
+
+    public void shapeMoved(ShapeImpl previous, ShapeImpl current) {
+        ByteBuffer payload = start(MOVED, current.getId(), 8);
+        payload.putInt(current.getX()).putInt(current.getY());
+        append(payload);
+    }
+
+    public void shapeRemoved(ShapeImpl shape) {
+        append(start(REMOVED, shape.getId(), 0));
+    }
+
+    private ByteBuffer start(byte type, long id, int size) {
+        if (record.length < 1 + 8 + size) {
+            record = new byte[Math.max(1 + 8 + size, record.length * 2)];
+        }
+        return ByteBuffer.wrap(record).put(type).putLong(id);
+    }
+
+    private void append(ByteBuffer payload) {
+        if (failed) {
+            return;
+        }
+        int length = payload.position();
+        crc.reset();
+        crc.update(record, 0, length);
+        int checksum = (int) crc.getValue();
+        if (!segment.append(record, length, checksum)) {
+            // The committer did not compact in time.
+            if (!roll() || !segment.append(record, length, checksum)) {
+                failed = true;
+                System.err.println("Journal disabled, changes are no longer"
+                        + " saved to " + directory);
+            }
+        }
+    }
+
+    /**
+     * Starts a new segment, to be followed by a snapshot of the store as of
+     * now. Must be called while the store is locked.
+     *
+     * @return Whether the new segment could be created.
+     */
+    private boolean roll() {
+        long generation = segment.getGeneration() + 1;
+        JournalSegment next;
+        try {
+            next = JournalSegment.create(file(SEGMENT_PREFIX, generation),
+                    generation, SEGMENT_SIZE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        retired.add(segment);
+        segment = next;
+        pending = new Checkpoint(generation, store.getVersion(),
+                store.getNextId());
+        return true;
+    }
+
+    /**
+     * Forces every appended record to the storage device.
+     */
+    private void commit() throws IOException {
+        // Read first, so that a segment started meanwhile is only forced once
+        // the ones before it are.
+        JournalSegment current = segment;
+        JournalSegment old;
+        while ((old = retired.poll()) != null) {
+            old.close();
+        }
+        current.force();
+    }
+
+    private void writeSnapshot(SnapshotFile snapshot) throws IOException {
+        File temporary = new File(directory,
+                SNAPSHOT_PREFIX + snapshot.generation + TEMPORARY_SUFFIX);
+        snapshot.write(temporary);
+        File target = file(SNAPSHOT_PREFIX, snapshot.generation);
+        if (!temporary.renameTo(target)) {
+            throw new IOException("Cannot rename " + temporary);
+        }
+        // Everything older is now covered by the snapshot.
+        for (File file : list(SNAPSHOT_PREFIX)) {
+            if (generation(file, SNAPSHOT_PREFIX) < snapshot.generation) {
+                file.delete();
+            }
+        }
+        for (File file : list(SEGMENT_PREFIX)) {
+            if (generation(file, SEGMENT_PREFIX) < snapshot.generation) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Loads the latest snapshot and the segments written after it into the
+     * store.
+     *
+     * @return The generation of the segment to write next.
+     */
+    private long recover() throws IOException {
+        for (File file : directory.listFiles()) {
+            if (file.getName().endsWith(TEMPORARY_SUFFIX)) {
+                // Left by a crash while writing a snapshot.
+                file.delete();
+            }
+        }
+        SnapshotFile snapshot = null;
+        List<File> snapshots = list(SNAPSHOT_PREFIX);
+        for (int i = snapshots.size() - 1; i >= 0 && snapshot == null; i--) {
+            try {
+                snapshot = SnapshotFile.read(snapshots.get(i));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        Recovery recovery = snapshot == null ? new Recovery()
+                : new Recovery(snapshot);
+        long generation = snapshot == null ? 0 : snapshot.generation;
+        long last = generation - 1;
+        List<File> segments = new ArrayList<>();
+        for (File file : list(SEGMENT_PREFIX)) {
+            long fileGeneration = generation(file, SEGMENT_PREFIX);
+            if (fileGeneration >= generation) {
+                JournalSegment.replay(file, recovery);
+                segments.add(file);
+                last = Math.max(last, fileGeneration);
+            }
+        }
+        store.restore(recovery.shapes(), recovery.nextId, recovery.version);
+        if (recovery.records > 0) {
+            // Compacts the replayed segments in the background.
+            pending = new Checkpoint(last + 1, store.getVersion(),
+                    store.getNextId());
+        } else {
+            for (File file : segments) {
+                file.delete();
+            }
+        }
+        return last + 1;
+    }
+
+    private File file(String prefix, long generation) {
+        return new File(directory, prefix + generation);
+    }
+
+    /**
+     * @return The files with the given prefix, oldest generation first.
+     */
+    private List<File> list(final String prefix) {
+        List<File> files = new ArrayList<>();
+        for (File file : directory.listFiles()) {
+            if (generation(file, prefix) >= 0) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Long.compare(generation(a, prefix),
+                        generation(b, prefix));
+            }
+        });
+        return files;
+    }
+
+    /**
+     * @return The generation of the given file, or <tt>-1</tt> if it does not
+     *         have the given prefix.
+     */
+    private static long generation(File file, String prefix) {
+        String name = file.getName();
+        if (!name.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * State of the store rebuilt from a snapshot and journal records. Shapes
+     * are kept in id order; since ids only grow, added shapes are appended and
+     * moved or removed ones are found by binary search.
+     */
+    private static class Recovery implements JournalSegment.Visitor {
+        private final List<ShapeImpl> shapes;
+        private final BitSet removed = new BitSet();
+        private final Map<String, String> names = new HashMap<>();
+        private long nextId;
+        private long version;
+        private int records;
+
+        Recovery() {
+            this.shapes = new ArrayList<>();
+            this.nextId = 1;
+        }
+
+        Recovery(SnapshotFile snapshot) {
+            this.shapes = snapshot.shapes;
+            this.nextId = snapshot.nextId;
+            this.version = snapshot.version;
+            if (!shapes.isEmpty()) {
+                // The copy may hold shapes added after the snapshot was due.
+                nextId = Math.max(nextId,
+                        shapes.get(shapes.size() - 1).getId() + 1);
+            }
+        }
+
+        public void record(ByteBuffer payload) {
+            byte type = payload.get();
+            long id = payload.getLong();
+            if (type == ADDED) {
+                byte[] bytes = new byte[payload.getInt()];
+                payload.get(bytes);
+                String name = SnapshotFile.decode(bytes);
+                String shared = names.get(name);
+                if (shared == null) {
+                    names.put(name, name);
+                    shared = name;
+                }
+                ShapeImpl shape = new ShapeImpl(id, shared, payload.getInt(),
+                        payload.getInt(), payload.getInt(), payload.getInt());
+                if (shapes.isEmpty()
+                        || shapes.get(shapes.size() - 1).getId() < id) {
+                    shapes.add(shape);
+                } else {
+                    // Already in the snapshot copy, or missing from it only
+                    // because it was removed before being copied, in which
+                    // case its removal follows.
+                    int index = indexOf(id);
+                    if (index >= 0) {
+                        shapes.set(index, shape);
+                    }
+                }
+                nextId = Math.max(nextId, id + 1);
+            } else {
+                int index = indexOf(id);
+                if (index >= 0 && type == MOVED) {
+                    shapes.set(index, shapes.get(index)
+                            .moveTo(payload.getInt(), payload.getInt()));
+                } else if (index >= 0) {
+                    removed.set(index);
+                }
+            }
+            version++;
+            records++;
+        }
+
+        List<ShapeImpl> shapes() {
+            if (removed.isEmpty()) {
+                return shapes;
+            }
+            List<ShapeImpl> remaining = new ArrayList<>(
+                    shapes.size() - removed.cardinality());
+            for (int i = 0; i < shapes.size(); i++) {
+                if (!removed.get(i)) {
+                    remaining.add(shapes.get(i));
+                }
+            }
+            return remaining;
+        }
+
+        private int indexOf(long id) {
+            int low = 0;
+            int high = shapes.size() - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long middleId = shapes.get(middle).getId();
+                if (middleId < id) {
+                    low = middle + 1;
+                } else if (middleId > id) {
+                    high = middle - 1;
+                } else {
+                    return removed.get(middle) ? -1 : middle;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * The point a snapshot is due at: the generation of the segment started
+     * then and the state of the store.
+     */
+    private static class Checkpoint {
+        private final long generation;
+        private final long version;
+        private final long nextId;
+
+        Checkpoint(long generation, long version, long nextId) {
+            this.generation = generation;
+            this.version = version;
+            this.nextId = nextId;
+        }
+    }
+
+    /**
+     * Forces appended records every few milliseconds, and compacts the
+     * journal when needed.
+     */
+    private class Committer extends Thread {
+        private volatile boolean running = true;
+        private long lastSnapshot = System.nanoTime();
+        private long snapshotVersion = -1;
+
+        Committer() {
+            super("paint-journal");
+            setDaemon(true);
+        }
+
+        void shutdown() {
+            running = false;
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            if (pending == null) {
+                snapshotVersion = store.getVersion();
+            }
+            while (running) {
+                LockSupport.parkNanos(this, COMMIT_INTERVAL_NANOS);
+                try {
+                    commit();
+                    if (shouldCompact()) {
+                        store.locked(new Runnable() {
+                            public void run() {
+                                roll();
+                            }
+                        });
+                        commit();
+                    }
+                    Checkpoint checkpoint = pending;
+                    if (checkpoint != null) {
+                        pending = null;
+                        writeSnapshot(new SnapshotFile(checkpoint.generation,
+                                checkpoint.version, checkpoint.nextId,
+                                store.copy()));
+                        lastSnapshot = System.nanoTime();
+                        snapshotVersion = checkpoint.version;
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private boolean shouldCompact() {
+            if (pending != null) {
+                return false;
+            }
+            return segment.size() > COMPACTION_THRESHOLD
+                    || (System.nanoTime() - lastSnapshot > SNAPSHOT_INTERVAL_NANOS
+                            && store.getVersion() != snapshotVersion);
+        }
+    }
+
+}
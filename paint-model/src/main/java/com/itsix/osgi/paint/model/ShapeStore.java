@@ -0,0 +1,554 @@
+package com.itsix.osgi.paint.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.itsix.osgi.paint.api.Shape;
+import com.itsix.osgi.paint.api.ShapeChange;
+import com.itsix.osgi.paint.api.ShapeChanges;
+import com.itsix.osgi.paint.api.ShapePage;
+import com.itsix.osgi.paint.api.internal.ShapeImpl;
+
+/**
+ * Thread-safe model of the shapes drawn on the canvas. This is the source of
+ * truth for the <tt>PaintApi</tt>; the Swing canvas only mirrors it.
+ * <p>
+ * Shapes are stored as primitive {@link ShapeColumns}, with their name
+ * interned as a short type id, and slots freed by removals are reused. Every
+ * shape has an id that grows with every addition, so id order is also the
+ * z-order (bottom first); an {@link IdIndex} maps ids to slots and the ids
+ * are also kept in order for listing. Reads never lock and never see a
+ * half-updated shape; writes are serialized on a single lock. A
+ * {@link GridIndex} over the shape centers answers point and rectangle
+ * lookups.
+ * <p>
+ * Shapes are handed out as immutable <tt>ShapeImpl</tt> copies, or as a
+ * reusable {@link ShapeView} by the visiting methods, which allocate nothing
+ * per shape.
+ * <p>
+ * Every change bumps the version of the store and is recorded in a bounded
+ * {@link ChangeLog}, so that readers can catch up from a version they have
+ * already seen instead of listing everything again.
+ */
+public class ShapeStore {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ShapeTypes types = new ShapeTypes();
+    // Replaced by a larger copy when full, before the new slots are indexed.
+    private volatile ShapeColumns columns = new ShapeColumns(INITIAL_CAPACITY);
+    private final IdIndex slots = new IdIndex();
+    private volatile Order order = new Order(new long[INITIAL_CAPACITY], 0);
+    private final GridIndex index;
+    private final Object writeLock = new Object();
+    // Guarded by the write lock.
+    private long nextId = 1;
+    private int[] freeSlots = new int[64];
+    private int freeCount;
+    private int highestSlot;
+    private int removedIds;
+    // Number of shapes by type id.
+    private int[] typeCounts = new int[8];
+    private volatile int size;
+    // Largest half width or height seen so far; widens rectangle lookups so
+    // that shapes centered just outside the rectangle are still found.
+    private volatile int maxExtent;
+    private final List<ShapeStoreListener> listeners = new CopyOnWriteArrayList<>();
+    private final ChangeLog changeLog;
+
+    /**
+     * @param cellSize
+     *            The size of the spatial index cells, ideally close to the
+     *            size of the stored shapes.
+     * @param changeLogSize
+     *            The number of changes kept for {@link #changesSince(long)}.
+     */
+    public ShapeStore(int cellSize, int changeLogSize) {
+        index = new GridIndex(cellSize);
+        changeLog = new ChangeLog(changeLogSize);
+    }
+
+    public void addListener(ShapeStoreListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ShapeStoreListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Registers a shape type ahead of its first use, typically when the
+     * service drawing it is bound.
+     */
+    public void internType(String name) {
+        types.intern(name);
+    }
+
+    /**
+     * Adds a new shape centered on the given position.
+     *
+     * @return The stored shape.
+     */
+    public ShapeImpl add(String name, int x, int y, int width, int height) {
+        short type = types.intern(name);
+        synchronized (writeLock) {
+            ShapeImpl shape = new ShapeImpl(nextId++, types.name(type), x, y,
+                    width, height);
+            insert(shape, type);
+            record(ShapeChange.Type.ADDED, shape, x, y);
+            for (ShapeStoreListener listener : listeners) {
+                listener.shapeAdded(shape);
+            }
+            return shape;
+        }
+    }
+
+    /**
+     * Moves the shape with the given id so that it is centered on the given
+     * position.
+     *
+     * @return The moved shape or <tt>null</tt> if there is no such shape.
+     */
+    public ShapeImpl move(long id, int x, int y) {
+        synchronized (writeLock) {
+            int slot = slots.get(id);
+            ShapeView view = new ShapeView();
+            if (slot < 0 || !columns.read(slot, view, types)) {
+                return null;
+            }
+            ShapeImpl shape = view.toShape();
+            ShapeImpl moved = shape.moveTo(x, y);
+            columns.move(slot, x, y);
+            index.move(id, shape.getX(), shape.getY(), x, y);
+            record(ShapeChange.Type.MOVED, moved, shape.getX(), shape.getY());
+            for (ShapeStoreListener listener : listeners) {
+                listener.shapeMoved(shape, moved);
+            }
+            return moved;
+        }
+    }
+
+    /**
+     * Removes the shape with the given id.
+     *
+     * @return The removed shape or <tt>null</tt> if there is no such shape.
+     */
+    public ShapeImpl remove(long id) {
+        synchronized (writeLock) {
+            int slot = slots.get(id);
+            ShapeView view = new ShapeView();
+            if (slot < 0 || !columns.read(slot, view, types)) {
+                return null;
+            }
+            ShapeImpl shape = view.toShape();
+            count(columns.typeAt(slot), -1);
+            columns.free(slot);
+            slots.remove(id);
+            index.remove(id, shape.getX(), shape.getY());
+            release(slot);
+            record(ShapeChange.Type.DELETED, shape, shape.getX(),
+                    shape.getY());
+            for (ShapeStoreListener listener : listeners) {
+                listener.shapeRemoved(shape);
+            }
+            return shape;
+        }
+    }
+
+    /**
+     * Removes every shape equal to the given one, that is every shape with the
+     * same name centered on the same position.
+     *
+     * @return The removed shapes.
+     */
+    public List<ShapeImpl> removeAll(Shape shape) {
+        List<ShapeImpl> removed = new ArrayList<>();
+        synchronized (writeLock) {
+            for (long id : index.cellAt(shape.getX(), shape.getY())) {
+                ShapeImpl candidate = get(id);
+                if (candidate != null && candidate.equals(shape)) {
+                    removed.add(remove(id));
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return The topmost shape whose bounds contain the given point or
+     *         <tt>null</tt> if there is none.
+     */
+    public ShapeImpl shapeAt(int x, int y) {
+        int extent = maxExtent;
+        long[] ids = index.candidates(x - extent, y - extent, x + extent,
+                y + extent);
+        ShapeView view = new ShapeView();
+        for (int i = ids.length - 1; i >= 0; i--) {
+            if (read(ids[i], view) && contains(view, x, y)) {
+                return view.toShape();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The shapes whose bounds intersect the given rectangle, bottom
+     *         first.
+     */
+    public List<ShapeImpl> query(int x1, int y1, int x2, int y2) {
+        final List<ShapeImpl> result = new ArrayList<>();
+        visit(x1, y1, x2, y2, new ShapeVisitor() {
+            public void visit(ShapeView shape) {
+                result.add(shape.toShape());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Visits the shapes whose bounds intersect the given rectangle, bottom
+     * first.
+     */
+    public void visit(int x1, int y1, int x2, int y2, ShapeVisitor visitor) {
+        int left = Math.min(x1, x2);
+        int top = Math.min(y1, y2);
+        int right = Math.max(x1, x2);
+        int bottom = Math.max(y1, y2);
+        int extent = maxExtent;
+        long[] ids = index.candidates(left - extent, top - extent,
+                right + extent, bottom + extent);
+        ShapeView view = new ShapeView();
+        for (long id : ids) {
+            if (read(id, view) && intersects(view, left, top, right, bottom)) {
+                visitor.visit(view);
+            }
+        }
+    }
+
+    /**
+     * Visits every shape, bottom first.
+     */
+    public void visitAll(ShapeVisitor visitor) {
+        Order current = order;
+        long[] ids = current.ids;
+        int count = current.size;
+        ShapeView view = new ShapeView();
+        for (int i = 0; i < count; i++) {
+            if (read(ids[i], view)) {
+                visitor.visit(view);
+            }
+        }
+    }
+
+    public ShapeImpl get(long id) {
+        ShapeView view = new ShapeView();
+        return read(id, view) ? view.toShape() : null;
+    }
+
+    /**
+     * @return The shapes currently on the canvas, bottom first.
+     */
+    public Collection<Shape> list() {
+        final List<Shape> result = new ArrayList<>(size);
+        visitAll(new ShapeVisitor() {
+            public void visit(ShapeView shape) {
+                result.add(shape.toShape());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Lists up to <tt>limit</tt> shapes, bottom first, starting after the
+     * shape with the given id.
+     */
+    public ShapePage page(long after, int limit) {
+        List<Shape> page = new ArrayList<>(Math.min(limit, 1024));
+        Order current = order;
+        long[] ids = current.ids;
+        int count = current.size;
+        int i = Arrays.binarySearch(ids, 0, count, after);
+        i = i < 0 ? -i - 1 : i + 1;
+        long last = after;
+        ShapeView view = new ShapeView();
+        for (; i < count && page.size() < limit; i++) {
+            if (read(ids[i], view)) {
+                page.add(view.toShape());
+                last = view.id;
+            }
+        }
+        // More only if a live shape follows.
+        while (i < count && slots.get(ids[i]) < 0) {
+            i++;
+        }
+        return new ShapePage(page, last, i < count);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of shapes by name, in the order the names were
+     *         first seen.
+     */
+    public Map<String, Integer> countByType() {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        synchronized (writeLock) {
+            // Type 0 stands for shapes without a name.
+            for (int type = 1; type < typeCounts.length; type++) {
+                if (typeCounts[type] > 0) {
+                    counts.put(types.name(type), typeCounts[type]);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return The version of the store, bumped by every change. Shapes read
+     *         after this call reflect at least this version.
+     */
+    public long getVersion() {
+        return changeLog.getVersion();
+    }
+
+    /**
+     * @return The changes made after the given version, oldest first, or an
+     *         incomplete result if they are no longer all in the change log.
+     */
+    public ShapeChanges changesSince(long version) {
+        return changeLog.since(version);
+    }
+
+    /**
+     * Replaces the content of the store, for instance with shapes recovered
+     * from a journal. Listeners are not notified, and changes made before the
+     * given version are no longer available.
+     *
+     * @param restored
+     *            The shapes, in id order.
+     */
+    void restore(List<ShapeImpl> restored, long restoredNextId,
+            long restoredVersion) {
+        synchronized (writeLock) {
+            int capacity = INITIAL_CAPACITY;
+            while (capacity < restored.size()) {
+                capacity *= 2;
+            }
+            ShapeColumns loaded = new ShapeColumns(capacity);
+            long[] ids = new long[capacity];
+            slots.clear();
+            Arrays.fill(typeCounts, 0);
+            int extent = 0;
+            for (int slot = 0; slot < restored.size(); slot++) {
+                ShapeImpl shape = restored.get(slot);
+                short type = types.intern(shape.getName());
+                loaded.write(slot, shape.getId(), type, shape.getX(),
+                        shape.getY(), shape.getWidth(), shape.getHeight());
+                count(type, 1);
+                ids[slot] = shape.getId();
+                extent = Math.max(extent,
+                        (Math.max(shape.getWidth(), shape.getHeight()) + 1)
+                                / 2);
+            }
+            columns = loaded;
+            for (int slot = 0; slot < restored.size(); slot++) {
+                slots.put(ids[slot], slot);
+            }
+            order = new Order(ids, restored.size());
+            index.load(restored);
+            freeCount = 0;
+            highestSlot = restored.size();
+            removedIds = 0;
+            size = restored.size();
+            maxExtent = Math.max(maxExtent, extent);
+            nextId = restoredNextId;
+            changeLog.reset(restoredVersion);
+        }
+    }
+
+    /**
+     * Runs the given action while no change can be made.
+     */
+    void locked(Runnable action) {
+        synchronized (writeLock) {
+            action.run();
+        }
+    }
+
+    /**
+     * @return The id of the next shape. Only meaningful while locked.
+     */
+    long getNextId() {
+        return nextId;
+    }
+
+    /**
+     * @return The shapes currently stored, in id order, all as of the same
+     *         version.
+     */
+    public List<ShapeImpl> snapshot() {
+        final List<ShapeImpl> result = new ArrayList<>(size);
+        synchronized (writeLock) {
+            visitAll(new ShapeVisitor() {
+                public void visit(ShapeView shape) {
+                    result.add(shape.toShape());
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * @return The shapes currently stored, in id order, read without locking:
+     *         changes made meanwhile may or may not be included.
+     */
+    List<ShapeImpl> copy() {
+        final List<ShapeImpl> result = new ArrayList<>(size);
+        visitAll(new ShapeVisitor() {
+            public void visit(ShapeView shape) {
+                result.add(shape.toShape());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Reads the shape with the given id into the given view.
+     *
+     * @return <tt>false</tt> if there is no such shape.
+     */
+    private boolean read(long id, ShapeView view) {
+        int slot = slots.get(id);
+        // Read after the slot, so the columns are large enough for it.
+        return slot >= 0 && columns.read(slot, view, types) && view.id == id;
+    }
+
+    /**
+     * Stores a new shape. Must be called while locked.
+     */
+    private void insert(ShapeImpl shape, short type) {
+        int slot = allocate();
+        columns.write(slot, shape.getId(), type, shape.getX(), shape.getY(),
+                shape.getWidth(), shape.getHeight());
+        slots.put(shape.getId(), slot);
+        count(type, 1);
+        append(shape.getId());
+        index.insert(shape.getId(), shape.getX(), shape.getY());
+        int extent = (Math.max(shape.getWidth(), shape.getHeight()) + 1) / 2;
+        if (extent > maxExtent) {
+            maxExtent = extent;
+        }
+        size++;
+    }
+
+    /**
+     * Must be called while locked.
+     */
+    private void count(int type, int delta) {
+        if (type >= typeCounts.length) {
+            typeCounts = Arrays.copyOf(typeCounts,
+                    Math.max(type + 1, typeCounts.length * 2));
+        }
+        typeCounts[type] += delta;
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (highestSlot == columns.capacity()) {
+            columns = columns.grow(highestSlot * 2);
+        }
+        return highestSlot++;
+    }
+
+    /**
+     * Makes the slot of a removed shape available again. Must be called while
+     * locked.
+     */
+    private void release(int slot) {
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+        size--;
+        removedIds++;
+        if (removedIds > INITIAL_CAPACITY && removedIds * 2 > order.size) {
+            compactOrder();
+        }
+    }
+
+    private void append(long id) {
+        Order current = order;
+        int count = current.size;
+        if (count < current.ids.length) {
+            current.ids[count] = id;
+            current.size = count + 1;
+        } else {
+            long[] grown = Arrays.copyOf(current.ids, count * 2);
+            grown[count] = id;
+            order = new Order(grown, count + 1);
+        }
+    }
+
+    /**
+     * Drops the ids of removed shapes from the listing order, in a copy so
+     * that readers going through the current order are not disturbed.
+     */
+    private void compactOrder() {
+        Order current = order;
+        long[] ids = new long[Math.max(INITIAL_CAPACITY, size * 2)];
+        int count = 0;
+        for (int i = 0; i < current.size; i++) {
+            if (slots.get(current.ids[i]) >= 0) {
+                ids[count++] = current.ids[i];
+            }
+        }
+        order = new Order(ids, count);
+        removedIds = 0;
+    }
+
+    private void record(ShapeChange.Type type, ShapeImpl shape, int previousX,
+            int previousY) {
+        changeLog.append(new ShapeChange(changeLog.getVersion() + 1, type,
+                shape, previousX, previousY));
+    }
+
+    private static boolean contains(Shape shape, int x, int y) {
+        int left = shape.getX() - shape.getWidth() / 2;
+        int top = shape.getY() - shape.getHeight() / 2;
+        return x >= left && x < left + shape.getWidth() && y >= top
+                && y < top + shape.getHeight();
+    }
+
+    private static boolean intersects(Shape shape, int left, int top,
+            int right, int bottom) {
+        int shapeLeft = shape.getX() - shape.getWidth() / 2;
+        int shapeTop = shape.getY() - shape.getHeight() / 2;
+        return shapeLeft <= right && shapeLeft + shape.getWidth() > left
+                && shapeTop <= bottom && shapeTop + shape.getHeight() > top;
+    }
+
+    /**
+     * Ids of the stored shapes in ascending order, possibly including removed
+     * ones. Only the first <tt>size</tt> ids are valid; ids are appended by
+     * writing the slot first and publishing the new size after it.
+     */
+    private static class Order {
+        private final long[] ids;
+        private volatile int size;
+
+        Order(long[] ids, int size) {
+            this.ids = ids;
+            this.size = size;
+        }
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.itsix.osgi.paint.model;
+
+import com.itsix.osgi.paint.api.internal.ShapeImpl;
+
+/**
+ * Notified of every change of a {@link ShapeStore}. Methods are called while
+ * the store holds its write lock, in the order the changes were made, so they
+ * must return quickly and must not call back into the store to change it.
+ */
+public interface ShapeStoreListener {
+
+    void shapeAdded(ShapeImpl shape);
+
+    void shapeMoved(ShapeImpl previous, ShapeImpl current);
+
+    void shapeRemoved(ShapeImpl shape);
+
+}
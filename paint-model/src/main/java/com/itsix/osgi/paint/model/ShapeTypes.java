@@ -0,0 +1,52 @@
+package com.itsix.osgi.paint.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interned shape names, so that the store keeps a short type id per shape
+ * instead of a name. Type <tt>0</tt> stands for shapes without a name. Names
+ * are never removed: shape types form a small set, and shapes of a type whose
+ * service went away stay on the canvas.
+ */
+class ShapeTypes {
+
+    private final ConcurrentHashMap<String, Short> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[] { null };
+
+    /**
+     * @return The type id of the given name, assigned on first use.
+     * @throws IllegalStateException
+     *             If there are already too many types.
+     */
+    short intern(String name) {
+        if (name == null) {
+            return 0;
+        }
+        Short id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(name);
+            if (id == null) {
+                String[] current = names;
+                if (current.length > Short.MAX_VALUE) {
+                    throw new IllegalStateException("Too many shape types");
+                }
+                String[] grown = Arrays.copyOf(current, current.length + 1);
+                grown[current.length] = name;
+                // Published before the id, so the id always resolves.
+                names = grown;
+                id = (short) current.length;
+                ids.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    String name(int type) {
+        return names[type];
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.itsix.osgi.paint.model;
+
+import com.itsix.osgi.paint.api.Shape;
+import com.itsix.osgi.paint.api.internal.ShapeImpl;
+
+/**
+ * Reusable view of a shape stored in a {@link ShapeStore}. A view is filled
+ * again for every shape visited, so it is only valid during the visit; use
+ * {@link #toShape()} to keep the shape.
+ */
+public final class ShapeView implements Shape {
+
+    long id;
+    String name;
+    int x;
+    int y;
+    int width;
+    int height;
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getX() {
+        return x;
+    }
+
+    @Override
+    public int getY() {
+        return y;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return An immutable copy of the shape currently viewed.
+     */
+    public ShapeImpl toShape() {
+        return new ShapeImpl(id, name, x, y, width, height);
+    }
+
+}
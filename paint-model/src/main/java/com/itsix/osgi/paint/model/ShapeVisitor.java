@@ -0,0 +1,14 @@
+package com.itsix.osgi.paint.model;
+
+/**
+ * Visits the shapes of a {@link ShapeStore} without copying them.
+ */
+public interface ShapeVisitor {
+
+    /**
+     * @param shape
+     *            A view only valid until this method returns.
+     */
+    void visit(ShapeView shape);
+
+}
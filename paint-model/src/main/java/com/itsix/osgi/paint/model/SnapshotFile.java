@@ -0,0 +1,149 @@
+package com.itsix.osgi.paint.model;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.itsix.osgi.paint.api.internal.MappedBuffers;
+import com.itsix.osgi.paint.api.internal.ShapeImpl;
+
+/**
+ * Compacted image of a {@link ShapeStore}: its version, the next shape id, the
+ * journal generation following it and every shape, in id order. Shape names
+ * are stored once in a dictionary, and shapes as fixed size records, so a
+ * snapshot is read back straight from a mapped file.
+ */
+class SnapshotFile {
+
+    private static final int MAGIC = 0x50534e50;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int SHAPE_SIZE = 8 + 4 + 4 * 4;
+
+    final long generation;
+    final long version;
+    final long nextId;
+    final List<ShapeImpl> shapes;
+
+    SnapshotFile(long generation, long version, long nextId,
+            List<ShapeImpl> shapes) {
+        this.generation = generation;
+        this.version = version;
+        this.nextId = nextId;
+        this.shapes = shapes;
+    }
+
+    /**
+     * Writes the snapshot and waits for it to reach the storage device.
+     */
+    void write(File path) throws IOException {
+        Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        List<byte[]> names = new ArrayList<byte[]>();
+        for (ShapeImpl shape : shapes) {
+            if (!dictionary.containsKey(shape.getName())) {
+                dictionary.put(shape.getName(), names.size());
+                names.add(encode(shape.getName()));
+            }
+        }
+        try (FileOutputStream output = new FileOutputStream(path)) {
+            FileChannel channel = output.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.putInt(MAGIC).putLong(generation).putLong(version)
+                    .putLong(nextId).putInt(names.size());
+            for (byte[] name : names) {
+                if (buffer.remaining() < 4 + name.length) {
+                    drain(buffer, channel);
+                }
+                if (buffer.remaining() < 4 + name.length) {
+                    throw new IOException("Shape name too long");
+                }
+                buffer.putInt(name.length).put(name);
+            }
+            buffer.putInt(shapes.size());
+            for (ShapeImpl shape : shapes) {
+                if (buffer.remaining() < SHAPE_SIZE) {
+                    drain(buffer, channel);
+                }
+                Integer index = dictionary.get(shape.getName());
+                buffer.putLong(shape.getId()).putInt(index)
+                        .putInt(shape.getX()).putInt(shape.getY())
+                        .putInt(shape.getWidth()).putInt(shape.getHeight());
+            }
+            drain(buffer, channel);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * @throws IOException
+     *             If the file is not a complete snapshot.
+     */
+    static SnapshotFile read(File path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            MappedByteBuffer buffer = file.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            try {
+                if (buffer.getInt() != MAGIC) {
+                    throw new IOException("Not a snapshot: " + path);
+                }
+                long generation = buffer.getLong();
+                long version = buffer.getLong();
+                long nextId = buffer.getLong();
+                String[] names = new String[buffer.getInt()];
+                for (int i = 0; i < names.length; i++) {
+                    byte[] name = new byte[buffer.getInt()];
+                    buffer.get(name);
+                    names[i] = decode(name);
+                }
+                int count = buffer.getInt();
+                if (buffer.remaining() != (long) count * SHAPE_SIZE) {
+                    throw new IOException("Truncated snapshot: " + path);
+                }
+                List<ShapeImpl> shapes = new ArrayList<ShapeImpl>(count);
+                for (int i = 0; i < count; i++) {
+                    long id = buffer.getLong();
+                    String name = names[buffer.getInt()];
+                    shapes.add(new ShapeImpl(id, name, buffer.getInt(),
+                            buffer.getInt(), buffer.getInt(), buffer.getInt()));
+                }
+                return new SnapshotFile(generation, version, nextId, shapes);
+            } catch (RuntimeException e) {
+                // Buffer underflows and out of range name indexes.
+                throw new IOException("Corrupt snapshot: " + path, e);
+            } finally {
+                MappedBuffers.unmap(buffer);
+            }
+        }
+    }
+
+    /**
+     * Encodes a shape name, <tt>null</tt> included.
+     */
+    static byte[] encode(String name) {
+        return name == null ? new byte[] { -1 } : name.getBytes(UTF8);
+    }
+
+    static String decode(byte[] name) {
+        return name.length == 1 && name[0] == -1 ? null
+                : new String(name, UTF8);
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel channel)
+            throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+}
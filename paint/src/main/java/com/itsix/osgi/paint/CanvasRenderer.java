@@ -0,0 +1,61 @@
+package com.itsix.osgi.paint;
+
+import javax.swing.JComponent;
+
+import com.itsix.osgi.paint.api.internal.ShapeImpl;
+
+/**
+ * The drawing canvas of the paint frame. A renderer mirrors the canvas model
+ * on screen; it never holds state of its own that the model does not have,
+ * apart from the position of a shape being dragged. All methods must be called
+ * on the event dispatch thread.
+ **/
+interface CanvasRenderer {
+
+    /**
+     * System property selecting the renderer: <tt>surface</tt> (the default)
+     * paints every shape on a single component, <tt>components</tt> uses one
+     * component per shape.
+     **/
+    String RENDERER_PROPERTY = "com.itsix.osgi.paint.renderer";
+
+    /**
+     * @return The component to add to the frame.
+     **/
+    JComponent getComponent();
+
+    /**
+     * Mirrors a change of the canvas model. Either argument may be
+     * <tt>null</tt>, when the shape was just added or just removed.
+     *
+     * @param previous
+     *            The shape before the change.
+     * @param current
+     *            The shape as it is in the model now, which may already
+     *            reflect later changes.
+     **/
+    void shapeChanged(ShapeImpl previous, ShapeImpl current);
+
+    /**
+     * Makes the mirrored changes visible.
+     **/
+    void refresh();
+
+    /**
+     * Starts dragging the given shape.
+     **/
+    void startDrag(ShapeImpl shape);
+
+    /**
+     * Shows the dragged shape centered on the given position, without touching
+     * the canvas model.
+     **/
+    void dragTo(int x, int y);
+
+    /**
+     * Stops dragging; the model change is mirrored through
+     * {@link #shapeChanged(ShapeImpl, ShapeImpl)}.
+     **/
+    void endDrag();
+
+}
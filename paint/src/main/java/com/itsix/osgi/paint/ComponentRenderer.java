@@ -0,0 +1,100 @@
+package com.itsix.osgi.paint;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.swing.JComponent;
+import javax.swing.JPanel;
+
+import com.itsix.osgi.paint.api.internal.ShapeImpl;
+
+/**
+ * Renderer that mirrors every shape with its own {@link ShapeComponent} inside
+ * a null-layout panel. The panel is laid out and repainted through a
+ * {@link FrameScheduler}, clipped to the bounds of the changed shapes.
+ **/
+class ComponentRenderer implements CanvasRenderer {
+
+    private final PaintFrame frame;
+    private final JPanel panel;
+    private final FrameScheduler frames;
+    private final Map<Long, ShapeComponent> components = new HashMap<Long, ShapeComponent>();
+    private ShapeComponent dragged;
+
+    ComponentRenderer(PaintFrame frame) {
+        this.frame = frame;
+        panel = new JPanel() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void paint(Graphics g) {
+                long start = System.nanoTime();
+                super.paint(g);
+                ComponentRenderer.this.frame.repainted(start);
+            }
+        };
+        panel.setBackground(Color.WHITE);
+        panel.setLayout(null);
+        panel.setMinimumSize(new Dimension(400, 400));
+        frames = new FrameScheduler(panel);
+    }
+
+    public JComponent getComponent() {
+        return panel;
+    }
+
+    public void shapeChanged(ShapeImpl previous, ShapeImpl current) {
+        if (previous != null) {
+            damage(previous);
+        }
+        if (current == null) {
+            ShapeComponent sc = components.remove(previous.getId());
+            if (sc != null) {
+                panel.remove(sc);
+            }
+            return;
+        }
+        ShapeComponent sc = components.get(current.getId());
+        if (sc == null) {
+            sc = new ShapeComponent(frame, current.getName(), current.getId());
+            components.put(current.getId(), sc);
+            panel.add(sc, 0);
+        }
+        sc.setBounds(current.getX() - current.getWidth() / 2,
+                current.getY() - current.getHeight() / 2, current.getWidth(),
+                current.getHeight());
+        damage(current);
+    }
+
+    private void damage(ShapeImpl shape) {
+        frames.damage(shape.getX() - shape.getWidth() / 2,
+                shape.getY() - shape.getHeight() / 2, shape.getWidth(),
+                shape.getHeight());
+    }
+
+    public void refresh() {
+        frames.relayout();
+    }
+
+    public void startDrag(ShapeImpl shape) {
+        dragged = components.get(shape.getId());
+        if (dragged != null) {
+            dragged.repaint();
+        }
+    }
+
+    public void dragTo(int x, int y) {
+        if (dragged != null) {
+            dragged.setLocation(x - dragged.getWidth() / 2,
+                    y - dragged.getHeight() / 2);
+        }
+    }
+
+    public void endDrag() {
+        dragged = null;
+    }
+
+}
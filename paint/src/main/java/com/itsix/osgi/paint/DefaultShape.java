@@ -40,13 +40,13 @@ import com.itsix.osgi.shape.SimpleShape;
  * Since this application uses the service-based extension approach, lazy shape
  * creation will only come into effect if service providers register service
  * factories instead of directly registering <tt>SimpleShape</tt> or if they use
- * a technology like Declarative Services or iPOJO to register services. Since
- * the example providers register services instances directly there is no
- * laziness in the example, but the proxy approach is still used to demonstrate
- * how to make laziness possible and to keep it similar to the extender-based
- * approach.
+ * a technology like Declarative Services or iPOJO to register services. The
+ * example providers are iPOJO service factories with static properties, so
+ * their instances are only created when a shape is first drawn.
  **/
 class DefaultShape implements SimpleShape {
+    private BundleContext context;
+    private ServiceReference reference;
     private SimpleShape shape;
     private ImageIcon icon;
 
@@ -58,18 +58,43 @@ class DefaultShape implements SimpleShape {
         // Do nothing.
     }
 
-    public DefaultShape(SimpleShape shape) {
-        this.shape = shape;
+    /**
+     * This constructs a proxy shape that lazily gets the shape service.
+     *
+     * @param context
+     *            The bundle context to use for retrieving the shape service.
+     * @param reference
+     *            The service reference of the service.
+     **/
+    public DefaultShape(BundleContext context, ServiceReference reference) {
+        this.context = context;
+        this.reference = reference;
     }
 
     /**
      * This method tells the proxy to dispose of its service object; this is
      * called when the underlying service goes away.
      **/
-    public void dispose() {
+    public synchronized void dispose() {
+        if (shape != null) {
+            context.ungetService(reference);
+        }
+        context = null;
+        reference = null;
         shape = null;
     }
 
+    /**
+     * @return The shape service, got on first use, or <tt>null</tt> if this
+     *         is a placeholder or the service is gone.
+     **/
+    private synchronized SimpleShape getService() {
+        if (shape == null && context != null) {
+            shape = (SimpleShape) context.getService(reference);
+        }
+        return shape;
+    }
+
     /**
      * Implements the <tt>SimpleShape</tt> interface method. When acting as a
      * proxy, this method gets the shape service and then uses it to draw the
@@ -82,9 +107,10 @@ class DefaultShape implements SimpleShape {
      *            The position to paint the triangle.
      **/
     public void draw(Graphics2D g2, Point p) {
-        if (shape != null) {
+        SimpleShape service = getService();
+        if (service != null) {
             // Draw the shape.
-            shape.draw(g2, p);
+            service.draw(g2, p);
             // If everything was successful, then simply return.
             return;
         }
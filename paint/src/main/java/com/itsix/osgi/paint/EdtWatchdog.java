@@ -0,0 +1,150 @@
+package com.itsix.osgi.paint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.itsix.osgi.paint.SwingUtils.Task;
+import com.itsix.osgi.paint.api.StallReport;
+
+/**
+ * Watches the event dispatch thread for stalls: a task handed to it through
+ * {@link SwingUtils} that has been waiting or running for longer than the
+ * threshold. A probe task is kept queued, so that the dispatch thread being
+ * busy with work of its own, such as painting, is noticed as well.
+ * <p>
+ * Each stall is reported once, with the stack of the dispatch thread and of
+ * the threads blocked on it, to the console and into a bounded ring of the
+ * latest reports.
+ */
+class EdtWatchdog implements Runnable {
+
+    /**
+     * System property setting after how many milliseconds a task waiting for
+     * or running on the event dispatch thread counts as a stall.
+     */
+    static final String THRESHOLD_PROPERTY = "com.itsix.osgi.paint.edtStallThreshold";
+    private static final long DEFAULT_THRESHOLD = 500;
+    private static final int CAPACITY = 32;
+
+    private final long threshold = Long.getLong(THRESHOLD_PROPERTY,
+            DEFAULT_THRESHOLD);
+    // Newest first, guarded by itself.
+    private final LinkedList<StallReport> reports = new LinkedList<StallReport>();
+    private final Runnable probe = new Runnable() {
+        public void run() {
+            probing = false;
+        }
+    };
+    private volatile boolean probing;
+    private volatile Thread thread;
+    // The oldest task of the stall being reported, if any.
+    private Task stalled;
+
+    void start() {
+        thread = new Thread(this, "paint-edt-watchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        Thread current = thread;
+        thread = null;
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    /**
+     * @return The latest stalls, newest first.
+     */
+    List<StallReport> getReports() {
+        synchronized (reports) {
+            return new ArrayList<StallReport>(reports);
+        }
+    }
+
+    public void run() {
+        long interval = Math.max(1, threshold / 4);
+        while (thread == Thread.currentThread()) {
+            if (!probing) {
+                probing = true;
+                SwingUtils.invokeLater(probe);
+            }
+            check();
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        long limit = threshold * 1000000L;
+        Task oldest = null;
+        for (Task task : SwingUtils.getPending()) {
+            if (oldest == null || task.queued < oldest.queued) {
+                oldest = task;
+            }
+        }
+        if (oldest == null || now - oldest.queued < limit) {
+            stalled = null;
+            return;
+        }
+        Task running = SwingUtils.getRunning();
+        long runningNanos = running == null ? 0 : now - running.started;
+        if (oldest == stalled) {
+            return;
+        }
+        if (running != null && running == stalled) {
+            // Still stuck in the same task, now holding up others.
+            stalled = oldest;
+            return;
+        }
+        stalled = running != null ? running : oldest;
+        report(running, runningNanos / 1000000L, now);
+    }
+
+    private void report(Task running, long runningMillis, long now) {
+        Thread edt = SwingUtils.getDispatchThread();
+        List<String> edtStack = edt == null ? Collections.<String> emptyList()
+                : toStrings(edt.getStackTrace());
+        List<StallReport.Caller> callers = new ArrayList<StallReport.Caller>();
+        for (Task task : SwingUtils.getPending()) {
+            if (task.caller != null && !task.abandoned) {
+                callers.add(new StallReport.Caller(task.caller.getName(),
+                        (now - task.queued) / 1000000L,
+                        toStrings(task.caller.getStackTrace())));
+            }
+        }
+        String name = running == null || running.runnable == probe ? null
+                : running.runnable.getClass().getName();
+        StallReport report = new StallReport(System.currentTimeMillis(), name,
+                runningMillis, edtStack, callers);
+        synchronized (reports) {
+            reports.addFirst(report);
+            if (reports.size() > CAPACITY) {
+                reports.removeLast();
+            }
+        }
+        System.out.println("Event dispatch thread stalled"
+                + (name == null ? "" : " in " + name + " for "
+                        + runningMillis + " ms")
+                + ", " + callers.size() + " threads waiting");
+        for (String frame : edtStack) {
+            System.out.println("\tat " + frame);
+        }
+    }
+
+    private static List<String> toStrings(StackTraceElement[] stack) {
+        List<String> frames = new ArrayList<String>(stack.length);
+        for (StackTraceElement frame : stack) {
+            frames.add(frame.toString());
+        }
+        return frames;
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.itsix.osgi.paint;
+
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+/**
+ * Coalesces the damage done to the canvas into frames: however many changes
+ * are mirrored in between, the canvas is laid out at most once and repainted
+ * once, clipped to the union of the damaged regions, per frame. Frames are at
+ * least {@link #FRAME_MILLIS} apart, so a burst of changes costs a bounded
+ * number of repaints; a change made after an idle period is shown at once.
+ * <p>
+ * All methods must be called on the event dispatch thread.
+ **/
+class FrameScheduler implements ActionListener {
+
+    static final int FRAME_MILLIS = 16;
+
+    private final JComponent component;
+    private final Timer timer;
+    private Rectangle damaged;
+    private boolean layout;
+    private long lastFrame;
+
+    FrameScheduler(JComponent component) {
+        this.component = component;
+        timer = new Timer(0, this);
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Repaints the given region of the component in the next frame.
+     **/
+    void damage(int x, int y, int width, int height) {
+        if (damaged == null) {
+            damaged = new Rectangle(x, y, width, height);
+        } else {
+            damaged.add(new Rectangle(x, y, width, height));
+        }
+        schedule();
+    }
+
+    /**
+     * Lays out the component in the next frame.
+     **/
+    void relayout() {
+        layout = true;
+        schedule();
+    }
+
+    private void schedule() {
+        if (timer.isRunning()) {
+            return;
+        }
+        long wait = lastFrame + FRAME_MILLIS
+                - System.nanoTime() / 1000000L;
+        timer.setInitialDelay((int) Math.max(0, wait));
+        timer.start();
+    }
+
+    public void actionPerformed(ActionEvent e) {
+        lastFrame = System.nanoTime() / 1000000L;
+        if (layout) {
+            layout = false;
+            component.validate();
+        }
+        if (damaged != null) {
+            component.repaint(damaged);
+            damaged = null;
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.itsix.osgi.paint;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Toolkit;
+import java.net.URL;
+
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+
+/**
+ * Icon decoded from its resource only when it is first measured or painted,
+ * which for a toolbar button is when the toolbar is first laid out. Must be
+ * used on the event dispatch thread.
+ **/
+public class LazyIcon implements Icon {
+
+    private final URL resource;
+    private ImageIcon icon;
+
+    public LazyIcon(URL resource) {
+        this.resource = resource;
+    }
+
+    private ImageIcon getIcon() {
+        if (icon == null) {
+            // Not through Toolkit.getImage, which would keep the image of
+            // every uninstalled bundle cached.
+            icon = new ImageIcon(
+                    Toolkit.getDefaultToolkit().createImage(resource));
+        }
+        return icon;
+    }
+
+    public void paintIcon(Component c, Graphics g, int x, int y) {
+        getIcon().paintIcon(c, g, x, y);
+    }
+
+    public int getIconWidth() {
+        return getIcon().getIconWidth();
+    }
+
+    public int getIconHeight() {
+        return getIcon().getIconHeight();
+    }
+
+}
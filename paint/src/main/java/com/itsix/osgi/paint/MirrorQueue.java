@@ -0,0 +1,131 @@
+package com.itsix.osgi.paint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.itsix.osgi.paint.api.PaintCallback;
+import com.itsix.osgi.paint.api.internal.ShapeImpl;
+
+/**
+ * Queue of model changes waiting to be mirrored on screen without blocking
+ * the threads that made them. However many changes are queued, they are
+ * mirrored in a single trip to the event dispatch thread followed by a single
+ * refresh, after which their completions run.
+ **/
+class MirrorQueue {
+
+    /**
+     * Mirrors changes on screen, called on the event dispatch thread.
+     **/
+    interface Mirror {
+        void mirror(ShapeImpl previous);
+
+        void refresh();
+    }
+
+    private final Mirror target;
+    private final ConcurrentLinkedQueue<Entry> entries = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable drain = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    MirrorQueue(Mirror target) {
+        this.target = target;
+    }
+
+    /**
+     * Queues the changes of the given shapes. The completion runs on the event
+     * dispatch thread once they are visible.
+     **/
+    public void submit(List<ShapeImpl> shapes, Completion<?> completion) {
+        entries.offer(new Entry(shapes, completion));
+        if (scheduled.compareAndSet(false, true)) {
+            SwingUtils.invokeLater(drain);
+        }
+    }
+
+    private void drain() {
+        // Cleared first, so that entries queued while draining schedule
+        // another pass instead of being left behind.
+        scheduled.set(false);
+        List<Entry> drained = new ArrayList<Entry>();
+        Entry entry;
+        while ((entry = entries.poll()) != null) {
+            try {
+                for (ShapeImpl shape : entry.shapes) {
+                    target.mirror(shape);
+                }
+            } catch (RuntimeException e) {
+                entry.completion.fail(e);
+            }
+            drained.add(entry);
+        }
+        if (drained.isEmpty()) {
+            return;
+        }
+        target.refresh();
+        for (Entry done : drained) {
+            done.completion.run();
+        }
+    }
+
+    /**
+     * Future of an asynchronous operation, completed with a result known up
+     * front once the change is visible. Notifies its callback, if any, on
+     * completion.
+     **/
+    static class Completion<T> extends FutureTask<T> {
+        private final PaintCallback<T> callback;
+
+        Completion(final T result, PaintCallback<T> callback) {
+            super(new Callable<T>() {
+                public T call() {
+                    return result;
+                }
+            });
+            this.callback = callback;
+        }
+
+        void fail(Throwable error) {
+            setException(error);
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null || isCancelled()) {
+                return;
+            }
+            try {
+                try {
+                    callback.completed(get());
+                } catch (ExecutionException e) {
+                    callback.failed(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                // A broken callback must not stop the other completions.
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static class Entry {
+        private final List<ShapeImpl> shapes;
+        private final Completion<?> completion;
+
+        Entry(List<ShapeImpl> shapes, Completion<?> completion) {
+            this.shapes = shapes;
+            this.completion = completion;
+        }
+    }
+
+}
@@ -19,27 +19,39 @@
 package com.itsix.osgi.paint;
 
 import java.awt.BorderLayout;
-import java.awt.Color;
-import java.awt.Component;
 import java.awt.Cursor;
 import java.awt.Dimension;
-import java.awt.Rectangle;
+import java.awt.Graphics2D;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.Icon;
 import javax.swing.JButton;
+import javax.swing.JComponent;
 import javax.swing.JFrame;
-import javax.swing.JPanel;
 import javax.swing.JToolBar;
+import javax.swing.SwingUtilities;
 
 import org.apache.felix.ipojo.annotations.Bind;
 import org.apache.felix.ipojo.annotations.Instantiate;
@@ -47,10 +59,33 @@ import org.apache.felix.ipojo.annotations.Invalidate;
 import org.apache.felix.ipojo.annotations.Provides;
 import org.apache.felix.ipojo.annotations.Unbind;
 import org.apache.felix.ipojo.annotations.Validate;
-
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.SynchronousBundleListener;
+
+import com.itsix.osgi.paint.MirrorQueue.Completion;
+import com.itsix.osgi.paint.api.ColumnarSnapshot;
+import com.itsix.osgi.paint.api.LatencyHistogram;
 import com.itsix.osgi.paint.api.PaintApi;
+import com.itsix.osgi.paint.api.PaintCallback;
+import com.itsix.osgi.paint.api.PaintMetrics;
+import com.itsix.osgi.paint.api.RateMeter;
 import com.itsix.osgi.paint.api.Shape;
+import com.itsix.osgi.paint.api.ShapeChanges;
+import com.itsix.osgi.paint.api.ShapePage;
+import com.itsix.osgi.paint.api.ShapeResult;
+import com.itsix.osgi.paint.api.StallReport;
+import com.itsix.osgi.paint.api.StartupTrace;
+import com.itsix.osgi.paint.api.Subscriber;
+import com.itsix.osgi.paint.api.SubscriberStats;
 import com.itsix.osgi.paint.api.internal.ShapeImpl;
+import com.itsix.osgi.paint.model.EventDispatcher;
+import com.itsix.osgi.paint.model.ShapeCanvas;
+import com.itsix.osgi.paint.model.ShapeJournal;
+import com.itsix.osgi.paint.model.ShapeStore;
 import com.itsix.osgi.shape.SimpleShape;
 
 /**
@@ -59,6 +94,12 @@ import com.itsix.osgi.shape.SimpleShape;
  * directly interact with the underlying OSGi framework; instead, it is injected
  * with the available <tt>SimpleShape</tt> instances to eliminate any
  * dependencies on the OSGi application programming interfaces.
+ * <p>
+ * The shapes on the canvas live in the {@link ShapeStore} of a
+ * {@link ShapeCanvas}; the drawing canvas is a {@link CanvasRenderer}
+ * mirroring it, selected through the <tt>com.itsix.osgi.paint.renderer</tt>
+ * system property. A {@link ShapeJournal} saves the store, which is restored
+ * on activation.
  **/
 @org.apache.felix.ipojo.annotations.Component(immediate = true, publicFactory = false)
 @Instantiate
@@ -67,43 +108,129 @@ public class PaintFrame extends JFrame
         implements MouseListener, MouseMotionListener, PaintApi {
     private static final long serialVersionUID = 1L;
     private static final int SHAPE_SIZE = 54;
+    private static final int CHANGE_LOG_SIZE = 1 << 16;
+    /**
+     * System property naming the directory where the canvas is saved. By
+     * default it is saved in the data area of the bundle.
+     **/
+    public static final String JOURNAL_PROPERTY = "com.itsix.osgi.paint.journal";
     private JToolBar toolbar;
     private String selectedShapeName;
-    private JPanel contentPanel;
-    private ShapeComponent m_selectedComponent;
+    private JComponent contentPanel;
+    // The size of the canvas, updated on the event dispatch thread and read
+    // by the callers of the PaintApi, which must not touch the component.
+    private volatile Dimension canvasSize = new Dimension();
+    // Released once the canvas is laid out with a size, so that shapes
+    // checked before the frame is realized are not all out of bounds.
+    private final CountDownLatch canvasLaidOut = new CountDownLatch(1);
+    private ShapeImpl m_selectedShape;
+    private final ShapeCanvas canvas = new ShapeCanvas(SHAPE_SIZE,
+            CHANGE_LOG_SIZE, new ShapeCanvas.Bounds() {
+                public String check(int x, int y) {
+                    if (!awaitCanvas()) {
+                        return "Canvas not shown";
+                    }
+                    return inCanvas(x, y) ? null : "Out of bounds";
+                }
+            });
+    private final ShapeStore store = canvas.getStore();
+    private final CanvasRenderer renderer;
+    private final MirrorQueue mirrorQueue = new MirrorQueue(
+            new MirrorQueue.Mirror() {
+                public void mirror(ShapeImpl previous) {
+                    PaintFrame.this.mirror(previous);
+                }
+
+                public void refresh() {
+                    renderer.refresh();
+                }
+            });
     private Map<String, DefaultShape> shapesMap = new HashMap<String, DefaultShape>();
     private ActionListener shapeActionListener = new ShapeActionListener();
     private SimpleShape defaultShape = new DefaultShape();
+    private final SpriteCache sprites = new SpriteCache();
+    private final EventDispatcher dispatcher = new EventDispatcher();
+    private final LatencyHistogram repaints = new LatencyHistogram();
+    private final RateMeter mutationRate = new RateMeter();
+    private final RateMeter repaintRate = new RateMeter();
+    private final EdtWatchdog watchdog = new EdtWatchdog();
+    private final ConcurrentLinkedQueue<Runnable> toolbarUpdates = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicBoolean toolbarScheduled = new AtomicBoolean();
+    private final BundleTracer bundleTracer = new BundleTracer();
+    private long activated;
+    private boolean painted;
+    private final BundleContext context;
 
     /**
-     * Default constructor that populates the main window.
+     * Constructor that populates the main window.
+     *
+     * @param context
+     *            The context of the bundle, whose data area keeps the canvas.
      **/
-    public PaintFrame() {
+    public PaintFrame(BundleContext context) {
         super("PaintFrame");
+        long start = System.nanoTime();
+        this.context = context;
         System.out.println("Creating paint frame");
         toolbar = new JToolBar("Toolbar");
-        contentPanel = new JPanel();
-        contentPanel.setBackground(Color.WHITE);
-        contentPanel.setLayout(null);
-        contentPanel.setMinimumSize(new Dimension(400, 400));
+        if ("components".equals(
+                System.getProperty(CanvasRenderer.RENDERER_PROPERTY))) {
+            renderer = new ComponentRenderer(this);
+        } else {
+            renderer = new SurfaceRenderer(this, store);
+        }
+        contentPanel = renderer.getComponent();
         contentPanel.addMouseListener(this);
+        contentPanel.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent evt) {
+                Dimension size = contentPanel.getSize();
+                canvasSize = size;
+                if (size.width > 0 && size.height > 0) {
+                    canvasLaidOut.countDown();
+                }
+            }
+        });
+        store.addListener(dispatcher);
         getContentPane().setLayout(new BorderLayout());
         getContentPane().add(toolbar, BorderLayout.NORTH);
         getContentPane().add(contentPanel, BorderLayout.CENTER);
         setSize(400, 400);
+        StartupTrace.markSince("paint: frame built", start);
     }
 
+    /**
+     * Restores the canvas and shows the frame. The frame is realized on the
+     * event dispatch thread without waiting for it, so that neither
+     * activation nor the components validated after it wait for it.
+     **/
     @Validate
     protected void activate() {
-        SwingUtils.invokeAndWait(new Runnable() {
+        activated = System.nanoTime();
+        StartupTrace.mark("paint: valid");
+        context.addBundleListener(bundleTracer);
+        context.addFrameworkListener(bundleTracer);
+        openJournal();
+        watchdog.start();
+        SwingUtils.invokeLater(new Runnable() {
             public void run() {
+                for (Shape shape : store.list()) {
+                    mirror((ShapeImpl) shape);
+                }
+                renderer.refresh();
                 setVisible(true);
+                StartupTrace.markSince("paint: frame realized", activated);
             }
         });
     }
 
     @Invalidate
     protected void deactivate() {
+        context.removeBundleListener(bundleTracer);
+        context.removeFrameworkListener(bundleTracer);
+        canvas.closeJournal();
+        dispatcher.close();
+        watchdog.stop();
         SwingUtils.invokeLater(new Runnable() {
 
             public void run() {
@@ -114,108 +241,270 @@ public class PaintFrame extends JFrame
     }
 
     public Collection<Shape> listShapes() {
-        List<Shape> shapes = new ArrayList<>();
-        Component[] components = contentPanel.getComponents();
-        for (Component component : components) {
-            if (component instanceof ShapeComponent) {
-                ShapeComponent shapeComponent = (ShapeComponent) component;
-                Rectangle bounds = component.getBounds();
-                shapes.add(new ShapeImpl(shapeComponent.getName(), bounds));
-            }
+        return store.list();
+    }
+
+    public Collection<Shape> listShapes(int x1, int y1, int x2, int y2) {
+        return Collections.<Shape> unmodifiableList(
+                store.query(x1, y1, x2, y2));
+    }
+
+    public ShapePage listShapes(long after, int limit) {
+        return store.page(after, limit);
+    }
+
+    public long getVersion() {
+        return store.getVersion();
+    }
+
+    public ShapeChanges listChanges(long since) {
+        return store.changesSince(since);
+    }
+
+    public void exportSnapshot(WritableByteChannel channel)
+            throws IOException {
+        ColumnarSnapshot.write(store.snapshot(), channel);
+    }
+
+    public int importSnapshot(ByteBuffer snapshot) {
+        List<ShapeImpl> added = canvas.importSnapshot(snapshot);
+        if (!added.isEmpty()) {
+            mirrorAll(added);
         }
-        return shapes;
+        return added.size();
     }
 
     public void deleteShape(final Shape shape) {
-        SwingUtils.invokeAndWait(new Runnable() {
-            public void run() {
-                Component[] components = contentPanel.getComponents();
-                for (Component component : components) {
-                    if (component instanceof ShapeComponent) {
-                        ShapeComponent shapeComponent = (ShapeComponent) component;
-                        Rectangle bounds = component.getBounds();
-                        if (new ShapeImpl(shapeComponent.getName(), bounds)
-                                .equals(shape)) {
-                            contentPanel.remove(component);
-                            contentPanel.validate();
-                            contentPanel.repaint();
-                        }
-                    }
-                }
-            }
-        });
+        List<ShapeImpl> removed = canvas.removeAll(shape);
+        if (!removed.isEmpty()) {
+            mirrorAll(removed);
+        }
+    }
+
+    public Shape addShape(final Shape shape) {
+        ShapeImpl added = canvas.add(shape);
+        mirrorAll(Collections.singletonList(added));
+        return added;
+    }
+
+    public Shape getShape(long id) {
+        return store.get(id);
+    }
+
+    public Shape moveShape(long id, int x, int y) {
+        // Taken first, so that the bounds the shape is moving out of get
+        // repainted.
+        ShapeImpl previous = store.get(id);
+        ShapeImpl moved = canvas.move(id, x, y);
+        if (moved != null) {
+            mirrorAll(Collections.singletonList(previous));
+        }
+        return moved;
+    }
+
+    public Shape deleteShape(long id) {
+        ShapeImpl removed = store.remove(id);
+        if (removed != null) {
+            mirrorAll(Collections.singletonList(removed));
+        }
+        return removed;
+    }
+
+    public List<ShapeResult> addShapes(List<? extends Shape> shapes) {
+        List<ShapeImpl> added = new ArrayList<ShapeImpl>(shapes.size());
+        List<ShapeResult> results = canvas.addShapes(shapes, added);
+        if (!added.isEmpty()) {
+            mirrorAll(added);
+        }
+        return results;
+    }
+
+    public List<ShapeResult> deleteShapes(List<? extends Shape> shapes) {
+        List<ShapeImpl> removed = new ArrayList<ShapeImpl>();
+        List<ShapeResult> results = canvas.deleteShapes(shapes, removed);
+        if (!removed.isEmpty()) {
+            mirrorAll(removed);
+        }
+        return results;
+    }
+
+    public Future<ShapeResult> addShapeAsync(Shape shape,
+            PaintCallback<ShapeResult> callback) {
+        ShapeImpl added;
+        try {
+            added = canvas.add(shape);
+        } catch (IllegalArgumentException e) {
+            return completeNow(ShapeResult.failed(e.getMessage()), callback);
+        }
+        Completion<ShapeResult> completion = new Completion<ShapeResult>(
+                ShapeResult.ok(added.getId()), callback);
+        mirrorQueue.submit(Collections.singletonList(added), completion);
+        return completion;
+    }
+
+    public Future<ShapeResult> deleteShapeAsync(Shape shape,
+            PaintCallback<ShapeResult> callback) {
+        List<ShapeImpl> removed = canvas.removeAll(shape);
+        if (removed.isEmpty()) {
+            return completeNow(ShapeResult.failed("Not found"), callback);
+        }
+        Completion<ShapeResult> completion = new Completion<ShapeResult>(
+                ShapeResult.ok(), callback);
+        mirrorQueue.submit(removed, completion);
+        return completion;
+    }
+
+    private static Future<ShapeResult> completeNow(ShapeResult result,
+            PaintCallback<ShapeResult> callback) {
+        Completion<ShapeResult> completion = new Completion<ShapeResult>(
+                result, callback);
+        completion.run();
+        return completion;
+    }
+
+    /**
+     * Waits for the canvas to be laid out, as the frame is realized after the
+     * <tt>PaintApi</tt> is published, up to the timeout of
+     * <tt>SwingUtils</tt>. Does not wait on the event dispatch thread, which
+     * lays it out.
+     *
+     * @return <tt>false</tt> if the canvas was not laid out in time.
+     **/
+    private boolean awaitCanvas() {
+        if (canvasLaidOut.getCount() == 0) {
+            return true;
+        }
+        if (SwingUtilities.isEventDispatchThread()) {
+            return false;
+        }
+        try {
+            return canvasLaidOut.await(SwingUtils.getTimeout(),
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return Whether the given position is on the canvas, as of its last
+     *         layout. Safe to call from any thread.
+     **/
+    private boolean inCanvas(int x, int y) {
+        Dimension size = canvasSize;
+        return x >= 0 && y >= 0 && x < size.width && y < size.height;
+    }
+
+    /**
+     * Restores the canvas saved by a previous run and keeps saving it.
+     **/
+    private void openJournal() {
+        String path = System.getProperty(JOURNAL_PROPERTY);
+        canvas.openJournal(path != null ? new File(path)
+                : context.getDataFile("canvas"), "paint");
     }
 
-    public void addShape(final Shape shape) {
-        final PaintFrame frame = this;
-        SwingUtils.invokeAndWait(new Runnable() {
+    /**
+     * Mirrors the changes of all the given shapes on the canvas in a single
+     * trip to the event dispatch thread. The changes are already in the model,
+     * so if the event dispatch thread is stalled they are left to show up
+     * later rather than holding up the caller.
+     **/
+    private void mirrorAll(final List<ShapeImpl> shapes) {
+        boolean done = SwingUtils.invokeAndWait(new Runnable() {
             public void run() {
-                if (contentPanel.contains(shape.getX(), shape.getY())) {
-                    ShapeComponent sc = new ShapeComponent(frame,
-                            shape.getName());
-                    sc.setBounds(shape.getX() - SHAPE_SIZE / 2,
-                            shape.getY() - SHAPE_SIZE / 2, SHAPE_SIZE,
-                            SHAPE_SIZE);
-                    contentPanel.add(sc, 0);
-                    contentPanel.validate();
-                    contentPanel.repaint();
-                } else {
-                    throw new IllegalArgumentException("Out of bounds");
+                for (ShapeImpl shape : shapes) {
+                    mirror(shape);
                 }
+                renderer.refresh();
             }
         });
+        if (!done) {
+            System.out.println("Timed out mirroring " + shapes.size()
+                    + " shapes, they will show up once the canvas catches up");
+        }
     }
 
     /**
-     * Injects an available <tt>SimpleShape</tt> into the drawing frame.
+     * Mirrors a change of the given shape on the canvas. The renderer is
+     * handed the shape as it is in the model at the time of mirroring, so the
+     * order in which changes from different threads are mirrored does not
+     * matter. Must be called on the event dispatch thread.
      *
-     * @param name
-     *            The name of the injected <tt>SimpleShape</tt>.
-     * @param icon
-     *            The icon associated with the injected <tt>SimpleShape</tt>.
-     * @param shape
-     *            The injected <tt>SimpleShape</tt> instance.
+     * @param previous
+     *            The shape as it was before the change, or the added shape.
      **/
-    @Bind(aggregate = true, optional = true)
-    public void bindShape(SimpleShape shape, Map attrs) {
+    private void mirror(ShapeImpl previous) {
+        ShapeImpl current = store.get(previous.getId());
+        renderer.shapeChanged(previous, current);
+        mutationRate.mark();
+    }
+
+    /**
+     * Injects an available <tt>SimpleShape</tt> into the drawing frame. Only
+     * its service properties are read: the service itself is got when the
+     * shape is first drawn, and its icon decoded when the toolbar is first
+     * painted.
+     *
+     * @param reference
+     *            The reference of the injected <tt>SimpleShape</tt>.
+     **/
+    @Bind(aggregate = true, optional = true, specification = SimpleShape.class)
+    public void bindShape(ServiceReference reference) {
         System.out.println("Binding new shape");
-        final DefaultShape delegate = new DefaultShape(shape);
-        final String name = (String) attrs.get(SimpleShape.NAME_PROPERTY);
-        final Icon icon = (Icon) attrs.get(SimpleShape.ICON_PROPERTY);
+        final String name = (String) reference
+                .getProperty(SimpleShape.NAME_PROPERTY);
+        final Icon icon = getIcon(reference);
 
         if (name == null || icon == null)
             return;
 
-        shapesMap.put(name, delegate);
+        store.internType(name);
+        synchronized (shapesMap) {
+            shapesMap.put(name, new DefaultShape(context, reference));
+        }
+        StartupTrace.mark("paint: bound shape " + name);
 
-        SwingUtils.invokeAndWait(new Runnable() {
+        updateToolbar(new Runnable() {
             public void run() {
+                sprites.invalidate(name);
+
                 JButton button = new JButton(icon);
                 button.setActionCommand(name);
                 button.setToolTipText(name);
                 button.addActionListener(shapeActionListener);
-
-                if (selectedShapeName == null) {
-                    button.doClick();
-                }
-
                 toolbar.add(button);
-                toolbar.validate();
-                repaint();
             }
         });
     }
 
+    /**
+     * @return The icon registered with the given shape, or else the one
+     *         named by its icon resource, decoded on first use.
+     **/
+    private static Icon getIcon(ServiceReference reference) {
+        Object icon = reference.getProperty(SimpleShape.ICON_PROPERTY);
+        if (icon instanceof Icon) {
+            return (Icon) icon;
+        }
+        Object resource = reference
+                .getProperty(SimpleShape.ICON_RESOURCE_PROPERTY);
+        URL url = resource instanceof String
+                ? reference.getBundle().getResource((String) resource) : null;
+        return url == null ? null : new LazyIcon(url);
+    }
+
     /**
      * Removes a no longer available <tt>SimpleShape</tt> from the drawing
      * frame.
      *
-     * @param name
-     *            The name of the <tt>SimpleShape</tt> to remove.
+     * @param reference
+     *            The reference of the <tt>SimpleShape</tt> to remove.
      **/
-    @Unbind(aggregate = true)
-    public void unbindShape(SimpleShape shape, Map attrs) {
-        final String name = (String) attrs.get(SimpleShape.NAME_PROPERTY);
+    @Unbind(aggregate = true, specification = SimpleShape.class)
+    public void unbindShape(ServiceReference reference) {
+        final String name = (String) reference
+                .getProperty(SimpleShape.NAME_PROPERTY);
         if (name == null)
             return;
 
@@ -227,8 +516,10 @@ public class PaintFrame extends JFrame
 
         if (delegate != null) {
             delegate.dispose();
-            SwingUtils.invokeAndWait(new Runnable() {
+            updateToolbar(new Runnable() {
                 public void run() {
+                    sprites.invalidate(name);
+
                     if ((selectedShapeName != null)
                             && selectedShapeName.equals(name)) {
                         selectedShapeName = null;
@@ -238,22 +529,108 @@ public class PaintFrame extends JFrame
                         JButton sb = (JButton) toolbar.getComponent(i);
                         if (sb.getActionCommand().equals(name)) {
                             toolbar.remove(i);
-                            toolbar.invalidate();
-                            validate();
-                            repaint();
                             break;
                         }
                     }
+                }
+            });
+        }
+    }
 
-                    if ((selectedShapeName == null)
-                            && (toolbar.getComponentCount() > 0)) {
-                        ((JButton) toolbar.getComponent(0)).doClick();
-                    }
+    /**
+     * Queues a change of the toolbar. However many shapes are bound or
+     * unbound in a burst, their changes are applied in a single trip to the
+     * event dispatch thread, followed by a single layout and repaint.
+     **/
+    private void updateToolbar(Runnable update) {
+        toolbarUpdates.offer(update);
+        if (toolbarScheduled.compareAndSet(false, true)) {
+            SwingUtils.invokeLater(new Runnable() {
+                public void run() {
+                    applyToolbarUpdates();
                 }
             });
         }
     }
 
+    private void applyToolbarUpdates() {
+        // Cleared first, so that updates queued while applying schedule
+        // another pass instead of being left behind.
+        toolbarScheduled.set(false);
+        Runnable update = toolbarUpdates.poll();
+        if (update == null) {
+            return;
+        }
+        while (update != null) {
+            update.run();
+            update = toolbarUpdates.poll();
+        }
+        if ((selectedShapeName == null) && (toolbar.getComponentCount() > 0)) {
+            selectShape(((JButton) toolbar.getComponent(0))
+                    .getActionCommand());
+        }
+        toolbar.revalidate();
+        toolbar.repaint();
+        // Shapes drawn with a placeholder may now be available, or the
+        // other way around.
+        contentPanel.repaint();
+    }
+
+    /**
+     * Registers a whiteboard <tt>Subscriber</tt> to be notified of the changes
+     * of the canvas.
+     *
+     * @param subscriber
+     *            The injected <tt>Subscriber</tt>.
+     **/
+    @Bind(aggregate = true, optional = true)
+    public void bindSubscriber(Subscriber subscriber) {
+        dispatcher.register(subscriber);
+    }
+
+    /**
+     * Stops notifying a no longer available <tt>Subscriber</tt>.
+     *
+     * @param subscriber
+     *            The <tt>Subscriber</tt> to remove.
+     **/
+    @Unbind(aggregate = true)
+    public void unbindSubscriber(Subscriber subscriber) {
+        dispatcher.unregister(subscriber);
+    }
+
+    public List<SubscriberStats> listSubscriberStats() {
+        return dispatcher.getStatistics();
+    }
+
+    public PaintMetrics getMetrics() {
+        return new PaintMetrics(SwingUtils.QUEUE_WAIT, SwingUtils.RUN,
+                repaints, mutationRate, repaintRate, store.countByType());
+    }
+
+    public List<StallReport> listStalls() {
+        return watchdog.getReports();
+    }
+
+    /**
+     * Records a repaint of the canvas started at the given
+     * <tt>System.nanoTime()</tt>.
+     */
+    void repainted(long start) {
+        repaints.recordSince(start);
+        repaintRate.mark();
+        if (!painted) {
+            painted = true;
+            int shapes;
+            synchronized (shapesMap) {
+                shapes = shapesMap.size();
+            }
+            StartupTrace.markSince(
+                    "paint: first frame, " + shapes + " shapes bound",
+                    activated);
+        }
+    }
+
     /**
      * This method sets the currently selected shape to be used for drawing on
      * the canvas.
@@ -275,7 +652,10 @@ public class PaintFrame extends JFrame
      *         <tt>null</tt>.
      **/
     public SimpleShape getShape(String name) {
-        SimpleShape shape = shapesMap.get(name);
+        SimpleShape shape;
+        synchronized (shapesMap) {
+            shape = shapesMap.get(name);
+        }
         if (shape == null) {
             return defaultShape;
         } else {
@@ -283,6 +663,20 @@ public class PaintFrame extends JFrame
         }
     }
 
+    /**
+     * Paints the named shape into the given bounds, from its cached sprite
+     * whenever possible. Must be called on the event dispatch thread.
+     *
+     * @param g2
+     *            The graphics object used for painting.
+     * @param name
+     *            The name of the <tt>SimpleShape</tt> to paint.
+     **/
+    void paintShape(Graphics2D g2, String name, int left, int top, int width,
+            int height) {
+        sprites.draw(g2, name, getShape(name), left, top, width, height);
+    }
+
     /**
      * Implements method for the <tt>MouseListener</tt> interface to draw the
      * selected shape into the drawing canvas.
@@ -296,12 +690,10 @@ public class PaintFrame extends JFrame
         }
 
         if (contentPanel.contains(evt.getX(), evt.getY())) {
-            ShapeComponent sc = new ShapeComponent(this, selectedShapeName);
-            sc.setBounds(evt.getX() - SHAPE_SIZE / 2,
-                    evt.getY() - SHAPE_SIZE / 2, SHAPE_SIZE, SHAPE_SIZE);
-            contentPanel.add(sc, 0);
-            contentPanel.validate();
-            contentPanel.repaint(sc.getBounds());
+            ShapeImpl added = store.add(selectedShapeName, evt.getX(),
+                    evt.getY(), SHAPE_SIZE, SHAPE_SIZE);
+            mirror(added);
+            renderer.refresh();
         }
     }
 
@@ -331,13 +723,13 @@ public class PaintFrame extends JFrame
      *            The associated mouse event.
      **/
     public void mousePressed(MouseEvent evt) {
-        Component c = contentPanel.getComponentAt(evt.getPoint());
-        if (c instanceof ShapeComponent) {
-            m_selectedComponent = (ShapeComponent) c;
+        ShapeImpl shape = store.shapeAt(evt.getX(), evt.getY());
+        if (shape != null) {
+            m_selectedShape = shape;
             contentPanel
                     .setCursor(Cursor.getPredefinedCursor(Cursor.MOVE_CURSOR));
             contentPanel.addMouseMotionListener(this);
-            m_selectedComponent.repaint();
+            renderer.startDrag(shape);
         }
     }
 
@@ -349,14 +741,15 @@ public class PaintFrame extends JFrame
      *            The associated mouse event.
      **/
     public void mouseReleased(MouseEvent evt) {
-        if (m_selectedComponent != null) {
+        if (m_selectedShape != null) {
             contentPanel.removeMouseMotionListener(this);
             contentPanel.setCursor(
                     Cursor.getPredefinedCursor(Cursor.DEFAULT_CURSOR));
-            m_selectedComponent.setBounds(evt.getX() - SHAPE_SIZE / 2,
-                    evt.getY() - SHAPE_SIZE / 2, SHAPE_SIZE, SHAPE_SIZE);
-            m_selectedComponent.repaint();
-            m_selectedComponent = null;
+            renderer.endDrag();
+            store.move(m_selectedShape.getId(), evt.getX(), evt.getY());
+            mirror(m_selectedShape);
+            renderer.refresh();
+            m_selectedShape = null;
         }
     }
 
@@ -368,8 +761,7 @@ public class PaintFrame extends JFrame
      *            The associated mouse event.
      **/
     public void mouseDragged(MouseEvent evt) {
-        m_selectedComponent.setBounds(evt.getX() - SHAPE_SIZE / 2,
-                evt.getY() - SHAPE_SIZE / 2, SHAPE_SIZE, SHAPE_SIZE);
+        renderer.dragTo(evt.getX(), evt.getY());
     }
 
     /**
@@ -382,6 +774,26 @@ public class PaintFrame extends JFrame
     public void mouseMoved(MouseEvent evt) {
     }
 
+    /**
+     * Records the bundles started and the framework reaching its start level
+     * in the <tt>StartupTrace</tt>.
+     **/
+    private static class BundleTracer
+            implements SynchronousBundleListener, FrameworkListener {
+        public void bundleChanged(BundleEvent event) {
+            if (event.getType() == BundleEvent.STARTED) {
+                StartupTrace.mark("bundle " + event.getBundle()
+                        .getSymbolicName() + " started");
+            }
+        }
+
+        public void frameworkEvent(FrameworkEvent event) {
+            if (event.getType() == FrameworkEvent.STARTED) {
+                StartupTrace.mark("framework started");
+            }
+        }
+    }
+
     /**
      * Simple action listener for shape tool bar buttons that sets the drawing
      * frame's currently selected shape when receiving an action event.
@@ -20,13 +20,10 @@ package com.itsix.osgi.paint;
 
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.RenderingHints;
 
 import javax.swing.JComponent;
 
-import com.itsix.osgi.shape.SimpleShape;
-
 /**
  * Simple component class used to represent a drawn shape. This component uses a
  * <tt>SimpleShape</tt> to paint its contents.
@@ -35,6 +32,7 @@ public class ShapeComponent extends JComponent {
     private static final long serialVersionUID = 1L;
     private PaintFrame frame;
     private String shapeName;
+    private long shapeId;
 
     /**
      * Construct a component for the specified drawing frame with the specified
@@ -45,10 +43,13 @@ public class ShapeComponent extends JComponent {
      *            The drawing frame associated with the component.
      * @param shapeName
      *            The name of the shape to draw.
+     * @param shapeId
+     *            The id of the mirrored shape in the canvas model.
      **/
-    public ShapeComponent(PaintFrame frame, String shapeName) {
+    public ShapeComponent(PaintFrame frame, String shapeName, long shapeId) {
         this.frame = frame;
         this.shapeName = shapeName;
+        this.shapeId = shapeId;
     }
 
     /**
@@ -64,8 +65,7 @@ public class ShapeComponent extends JComponent {
         Graphics2D g2 = (Graphics2D) g;
         g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
                 RenderingHints.VALUE_ANTIALIAS_ON);
-        SimpleShape shape = frame.getShape(shapeName);
-        shape.draw(g2, new Point(getWidth() / 2, getHeight() / 2));
+        frame.paintShape(g2, shapeName, 0, 0, getWidth(), getHeight());
     }
 
     @Override
@@ -73,4 +73,8 @@ public class ShapeComponent extends JComponent {
         return shapeName;
     }
 
+    public long getShapeId() {
+        return shapeId;
+    }
+
 }
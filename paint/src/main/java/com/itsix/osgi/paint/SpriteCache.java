@@ -0,0 +1,110 @@
+package com.itsix.osgi.paint;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Point;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.itsix.osgi.shape.SimpleShape;
+
+/**
+ * Cache of pre-rendered shapes. Each shape type is drawn once into a
+ * translucent image, keyed by the shape name, size and antialiasing hint, so
+ * painting a shape becomes a single image copy. Shapes are drawn as vectors
+ * whenever the target graphics is scaled, rotated or sheared, since a sprite
+ * would then no longer match the vector output.
+ * <p>
+ * The cache must only be used from the event dispatch thread.
+ **/
+class SpriteCache {
+
+    private final Map<String, Sprite> sprites = new HashMap<String, Sprite>();
+    private final Point center = new Point();
+
+    /**
+     * Paints the given shape into the given bounds.
+     *
+     * @param g2
+     *            The graphics object used for painting.
+     * @param name
+     *            The name of the shape, used as cache key.
+     * @param shape
+     *            The shape to paint.
+     **/
+    public void draw(Graphics2D g2, String name, SimpleShape shape, int left,
+            int top, int width, int height) {
+        AffineTransform transform = g2.getTransform();
+        if ((transform.getType() & ~AffineTransform.TYPE_TRANSLATION) != 0) {
+            drawVector(g2, shape, left, top, width, height);
+            return;
+        }
+        Object antialiasing = g2
+                .getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+        Sprite sprite = sprites.get(name);
+        if (sprite == null || !sprite.matches(width, height, antialiasing)) {
+            sprite = new Sprite(g2.getDeviceConfiguration(), shape, width,
+                    height, antialiasing);
+            sprites.put(name, sprite);
+        }
+        g2.drawImage(sprite.image, left, top, null);
+    }
+
+    /**
+     * Drops the sprite of the given shape, for instance because the service
+     * providing it went away or was replaced.
+     **/
+    public void invalidate(String name) {
+        sprites.remove(name);
+    }
+
+    private void drawVector(Graphics2D g2, SimpleShape shape, int left,
+            int top, int width, int height) {
+        center.setLocation(width / 2, height / 2);
+        g2.translate(left, top);
+        shape.draw(g2, center);
+        g2.translate(-left, -top);
+    }
+
+    private static class Sprite {
+        private final BufferedImage image;
+        private final int width;
+        private final int height;
+        private final Object antialiasing;
+
+        Sprite(GraphicsConfiguration configuration, SimpleShape shape,
+                int width, int height, Object antialiasing) {
+            this.width = width;
+            this.height = height;
+            this.antialiasing = antialiasing;
+            if (configuration != null) {
+                image = configuration.createCompatibleImage(width, height,
+                        Transparency.TRANSLUCENT);
+            } else {
+                image = new BufferedImage(width, height,
+                        BufferedImage.TYPE_INT_ARGB_PRE);
+            }
+            Graphics2D g2 = image.createGraphics();
+            try {
+                if (antialiasing != null) {
+                    g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                            antialiasing);
+                }
+                shape.draw(g2, new Point(width / 2, height / 2));
+            } finally {
+                g2.dispose();
+            }
+        }
+
+        boolean matches(int width, int height, Object antialiasing) {
+            return this.width == width && this.height == height
+                    && (this.antialiasing == null ? antialiasing == null
+                            : this.antialiasing.equals(antialiasing));
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.itsix.osgi.paint;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+
+import javax.swing.JComponent;
+import javax.swing.JPanel;
+
+import com.itsix.osgi.paint.api.Shape;
+import com.itsix.osgi.paint.api.internal.ShapeImpl;
+import com.itsix.osgi.paint.model.ShapeStore;
+import com.itsix.osgi.paint.model.ShapeView;
+import com.itsix.osgi.paint.model.ShapeVisitor;
+
+/**
+ * Renderer that paints every shape straight from the canvas model onto a
+ * single component, in z-order. Only the shapes intersecting the damaged
+ * region are painted, and changes only damage the bounds of the shapes
+ * involved, so the cost of a repaint does not grow with the size of the
+ * canvas. Damage is coalesced into frames by a {@link FrameScheduler}.
+ **/
+class SurfaceRenderer implements CanvasRenderer {
+
+    private final PaintFrame frame;
+    private final ShapeStore store;
+    private final Surface surface = new Surface();
+    private final FrameScheduler frames = new FrameScheduler(surface);
+    private ShapeImpl dragged;
+    private int dragX;
+    private int dragY;
+
+    SurfaceRenderer(PaintFrame frame, ShapeStore store) {
+        this.frame = frame;
+        this.store = store;
+        surface.setBackground(Color.WHITE);
+        surface.setMinimumSize(new Dimension(400, 400));
+    }
+
+    public JComponent getComponent() {
+        return surface;
+    }
+
+    public void shapeChanged(ShapeImpl previous, ShapeImpl current) {
+        if (previous != null) {
+            repaint(previous.getX(), previous.getY(), previous);
+        }
+        if (current != null) {
+            repaint(current.getX(), current.getY(), current);
+        }
+    }
+
+    public void refresh() {
+        // Every change already damaged its own region.
+    }
+
+    public void startDrag(ShapeImpl shape) {
+        dragged = shape;
+        dragX = shape.getX();
+        dragY = shape.getY();
+        repaint(dragX, dragY, shape);
+    }
+
+    public void dragTo(int x, int y) {
+        if (dragged != null) {
+            repaint(dragX, dragY, dragged);
+            dragX = x;
+            dragY = y;
+            repaint(dragX, dragY, dragged);
+        }
+    }
+
+    public void endDrag() {
+        if (dragged != null) {
+            repaint(dragX, dragY, dragged);
+            dragged = null;
+        }
+    }
+
+    private void repaint(int x, int y, ShapeImpl shape) {
+        frames.damage(x - shape.getWidth() / 2, y - shape.getHeight() / 2,
+                shape.getWidth(), shape.getHeight());
+    }
+
+    private void paintShape(Graphics2D g2, Shape shape, int x, int y) {
+        // Shapes draw themselves relative to their own bounds, just like when
+        // they are painted by a ShapeComponent.
+        frame.paintShape(g2, shape.getName(), x - shape.getWidth() / 2,
+                y - shape.getHeight() / 2, shape.getWidth(), shape.getHeight());
+    }
+
+    private class Surface extends JPanel {
+        private static final long serialVersionUID = 1L;
+
+        Surface() {
+            super(null);
+        }
+
+        @Override
+        public void paint(Graphics g) {
+            long start = System.nanoTime();
+            super.paint(g);
+            frame.repainted(start);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            Graphics2D g2 = (Graphics2D) g;
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            Rectangle clip = g2.getClipBounds();
+            if (clip == null) {
+                clip = new Rectangle(0, 0, getWidth(), getHeight());
+            }
+            final Graphics2D graphics = g2;
+            final ShapeImpl selected = dragged;
+            // Shapes are painted straight from the store, without a copy.
+            store.visit(clip.x, clip.y, clip.x + clip.width - 1,
+                    clip.y + clip.height - 1, new ShapeVisitor() {
+                        public void visit(ShapeView shape) {
+                            if (selected == null
+                                    || shape.getId() != selected.getId()) {
+                                paintShape(graphics, shape, shape.getX(),
+                                        shape.getY());
+                            }
+                        }
+                    });
+            if (selected != null) {
+                paintShape(g2, selected, dragX, dragY);
+            }
+        }
+    }
+
+}
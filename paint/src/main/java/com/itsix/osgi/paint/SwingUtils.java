@@ -1,23 +1,173 @@
 package com.itsix.osgi.paint;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import javax.swing.SwingUtilities;
 
+import com.itsix.osgi.paint.api.LatencyHistogram;
+
+/**
+ * Hands work to the event dispatch thread, keeping track of it for the
+ * {@link EdtWatchdog}: the tasks waiting to run, with the threads blocked on
+ * them, and the task running.
+ */
 public class SwingUtils {
 
-    public static void invokeAndWait(Runnable runnable) {
+    /**
+     * System property setting how long, in milliseconds,
+     * {@link #invokeAndWait(Runnable)} waits for its task by default.
+     */
+    public static final String TIMEOUT_PROPERTY = "com.itsix.osgi.paint.edtTimeout";
+    private static final long DEFAULT_TIMEOUT = 10000;
+
+    /**
+     * Time tasks handed to the event dispatch thread waited before running.
+     */
+    static final LatencyHistogram QUEUE_WAIT = new LatencyHistogram();
+
+    /**
+     * Time tasks handed to the event dispatch thread took to run, including
+     * the ones run directly because the caller already was on it.
+     */
+    static final LatencyHistogram RUN = new LatencyHistogram();
+
+    private static final long timeout = Long.getLong(TIMEOUT_PROPERTY,
+            DEFAULT_TIMEOUT);
+    private static final Set<Task> pending = Collections
+            .newSetFromMap(new ConcurrentHashMap<Task, Boolean>());
+    private static volatile Task running;
+    private static volatile Thread dispatchThread;
+
+    /**
+     * @return How long, in milliseconds, callers wait for the event dispatch
+     *         thread by default.
+     */
+    static long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Runs the given task on the event dispatch thread and waits for it, up
+     * to the default timeout. Exceptions thrown by the task are rethrown.
+     *
+     * @return <tt>false</tt> if the task did not complete in time; it will
+     *         still run later.
+     */
+    public static boolean invokeAndWait(Runnable runnable) {
+        return invokeAndWait(runnable, timeout);
+    }
+
+    /**
+     * Runs the given task on the event dispatch thread and waits for it, up
+     * to the given timeout. Exceptions thrown by the task are rethrown.
+     *
+     * @return <tt>false</tt> if the task did not complete in time; it will
+     *         still run later.
+     */
+    public static boolean invokeAndWait(Runnable runnable,
+            long timeoutMillis) {
         if (SwingUtilities.isEventDispatchThread()) {
-            runnable.run();
-        } else {
+            long start = System.nanoTime();
             try {
-                SwingUtilities.invokeAndWait(runnable);
-            } catch (Exception ex) {
-                ex.printStackTrace();
+                runnable.run();
+            } finally {
+                RUN.recordSince(start);
             }
+            return true;
         }
+        Task task = new Task(runnable, Thread.currentThread());
+        pending.add(task);
+        SwingUtilities.invokeLater(task);
+        try {
+            if (!task.done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                task.abandoned = true;
+                return false;
+            }
+        } catch (InterruptedException e) {
+            task.abandoned = true;
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (task.failure instanceof RuntimeException) {
+            throw (RuntimeException) task.failure;
+        } else if (task.failure instanceof Error) {
+            throw (Error) task.failure;
+        }
+        return true;
     }
 
     public static void invokeLater(Runnable runnable) {
-        SwingUtilities.invokeLater(runnable);
+        Task task = new Task(runnable, null);
+        pending.add(task);
+        SwingUtilities.invokeLater(task);
+    }
+
+    /**
+     * @return The tasks queued or running.
+     */
+    static Set<Task> getPending() {
+        return pending;
+    }
+
+    /**
+     * @return The task running, if any.
+     */
+    static Task getRunning() {
+        return running;
+    }
+
+    /**
+     * @return The event dispatch thread, once it ran a task.
+     */
+    static Thread getDispatchThread() {
+        return dispatchThread;
+    }
+
+    /**
+     * A task handed to the event dispatch thread.
+     */
+    static class Task implements Runnable {
+        final Runnable runnable;
+        // The thread waiting for the task, if any.
+        final Thread caller;
+        final long queued = System.nanoTime();
+        final CountDownLatch done;
+        volatile long started;
+        volatile boolean abandoned;
+        volatile Throwable failure;
+
+        Task(Runnable runnable, Thread caller) {
+            this.runnable = runnable;
+            this.caller = caller;
+            this.done = caller == null ? null : new CountDownLatch(1);
+        }
+
+        public void run() {
+            long start = System.nanoTime();
+            QUEUE_WAIT.record(start - queued);
+            dispatchThread = Thread.currentThread();
+            started = start;
+            running = this;
+            try {
+                runnable.run();
+            } catch (RuntimeException | Error e) {
+                if (done == null || abandoned) {
+                    throw e;
+                }
+                failure = e;
+            } finally {
+                running = null;
+                pending.remove(this);
+                RUN.recordSince(start);
+                if (done != null) {
+                    done.countDown();
+                }
+            }
+        }
     }
 
 }
@@ -1,15 +0,0 @@
-package com.itsix.osgi.paint.api;
-
-public interface Shape {
-
-    int getHeight();
-
-    int getWidth();
-
-    int getY();
-
-    int getX();
-
-    String getName();
-
-}
@@ -0,0 +1,247 @@
+package com.itsix.osgi.paint.rest;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.MediaType;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.itsix.osgi.paint.api.PaintApi;
+import com.itsix.osgi.paint.api.PaintCallback;
+import com.itsix.osgi.paint.api.ShapeResult;
+
+/**
+ * Non-blocking counterpart of the shape write operations of {@link Service}.
+ * Requests are suspended while the change is mirrored on screen and resumed
+ * from the completion callback, so container threads are never parked on the
+ * event dispatch thread. Jersey 1.x cannot suspend a resource method, hence a
+ * plain Servlet 3 servlet.
+ * <ul>
+ * <li><tt>POST shapes</tt> adds the <tt>ShapeDTO</tt> in the request body.</li>
+ * <li><tt>DELETE shapes?name=&amp;x=&amp;y=</tt> deletes a shape.</li>
+ * </ul>
+ * Both answer with a <tt>ShapeResult</tt>, and with the status the matching
+ * operations of {@link Service} use: <tt>400</tt> for a shape that cannot be
+ * added and <tt>404</tt> for a shape that is not on the canvas. Requests are
+ * timed into {@link RestMetrics} until they complete, resumed or not.
+ */
+public class AsyncShapeServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+    private static final long TIMEOUT_MILLIS = 30000;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final RestMetrics.Route ADD = new RestMetrics.Route(
+            "addShapeAsync", "POST", "/async/shapes");
+    private static final RestMetrics.Route DELETE = new RestMetrics.Route(
+            "deleteShapeAsync", "DELETE", "/async/shapes");
+
+    private final RestMetrics metrics;
+
+    AsyncShapeServlet(RestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void service(HttpServletRequest request,
+            HttpServletResponse response)
+            throws ServletException, IOException {
+        long start = System.nanoTime();
+        RestMetrics.Route route = null;
+        if (isShapesPath(request)) {
+            if ("POST".equals(request.getMethod())) {
+                route = ADD;
+            } else if ("DELETE".equals(request.getMethod())) {
+                route = DELETE;
+            }
+        }
+        boolean failed = true;
+        try {
+            super.service(request, response);
+            failed = false;
+        } finally {
+            if (!failed && request.isAsyncStarted()) {
+                request.getAsyncContext()
+                        .addListener(new Completion(route, start));
+            } else {
+                metrics.record(route, start, failed
+                        ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR
+                        : response.getStatus());
+            }
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        if (!isShapesPath(request)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        ShapeDTO shapeDTO;
+        try {
+            shapeDTO = MAPPER.readValue(request.getInputStream(),
+                    ShapeDTO.class);
+        } catch (IOException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    e.getMessage());
+            return;
+        }
+        PaintApi api = getPaintApi();
+        if (api == null) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        AsyncContext async = suspend(request);
+        api.addShapeAsync(shapeDTO,
+                new Resume(async, HttpServletResponse.SC_BAD_REQUEST));
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        if (!isShapesPath(request)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        ShapeDTO shapeDTO;
+        try {
+            shapeDTO = new ShapeDTO(request.getParameter("name"),
+                    Integer.parseInt(request.getParameter("x")),
+                    Integer.parseInt(request.getParameter("y")));
+        } catch (NumberFormatException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    e.getMessage());
+            return;
+        }
+        PaintApi api = getPaintApi();
+        if (api == null) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        AsyncContext async = suspend(request);
+        api.deleteShapeAsync(shapeDTO,
+                new Resume(async, HttpServletResponse.SC_NOT_FOUND));
+    }
+
+    private AsyncContext suspend(HttpServletRequest request) {
+        AsyncContext async = request.startAsync();
+        async.setTimeout(TIMEOUT_MILLIS);
+        return async;
+    }
+
+    private boolean isShapesPath(HttpServletRequest request) {
+        return "/shapes".equals(request.getPathInfo());
+    }
+
+    private PaintApi getPaintApi() {
+        return (PaintApi) getServletContext()
+                .getAttribute(PaintApi.class.getName());
+    }
+
+    /**
+     * Records a suspended request once it completes. Requests timing out are
+     * answered with <tt>503</tt>.
+     */
+    private class Completion implements AsyncListener {
+        private final RestMetrics.Route route;
+        private final long start;
+
+        Completion(RestMetrics.Route route, long start) {
+            this.route = route;
+            this.start = start;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            metrics.record(route, start,
+                    ((HttpServletResponse) event.getSuppliedResponse())
+                            .getStatus());
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            ((HttpServletResponse) event.getSuppliedResponse())
+                    .setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            event.getAsyncContext().complete();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            ((HttpServletResponse) event.getSuppliedResponse()).setStatus(
+                    HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            event.getAsyncContext().complete();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    /**
+     * Writes the result of the operation and resumes the suspended request.
+     * Callbacks run on the event dispatch thread, so the response is written
+     * from a container thread instead.
+     */
+    private static class Resume implements PaintCallback<ShapeResult> {
+        private final AsyncContext async;
+        private final int failureStatus;
+
+        /**
+         * @param failureStatus
+         *            The status answering a failed result.
+         */
+        Resume(AsyncContext async, int failureStatus) {
+            this.async = async;
+            this.failureStatus = failureStatus;
+        }
+
+        @Override
+        public void completed(final ShapeResult result) {
+            async.start(new Runnable() {
+                public void run() {
+                    HttpServletResponse response = (HttpServletResponse) async
+                            .getResponse();
+                    try {
+                        if (!result.isSuccess()) {
+                            response.setStatus(failureStatus);
+                        }
+                        response.setContentType(MediaType.APPLICATION_JSON);
+                        MAPPER.writeValue(response.getOutputStream(), result);
+                    } catch (IOException e) {
+                        // The client went away, nothing left to tell it.
+                    } finally {
+                        async.complete();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void failed(final Throwable error) {
+            async.start(new Runnable() {
+                public void run() {
+                    HttpServletResponse response = (HttpServletResponse) async
+                            .getResponse();
+                    try {
+                        response.setStatus(
+                                HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                        response.setContentType(MediaType.TEXT_PLAIN);
+                        response.getWriter().print(String.valueOf(error));
+                    } catch (IOException e) {
+                        // The client went away, nothing left to tell it.
+                    } finally {
+                        async.complete();
+                    }
+                }
+            });
+        }
+    }
+
+}
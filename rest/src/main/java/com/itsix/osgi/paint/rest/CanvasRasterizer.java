@@ -0,0 +1,377 @@
+package com.itsix.osgi.paint.rest;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+
+import com.itsix.osgi.paint.api.PaintApi;
+import com.itsix.osgi.paint.api.Shape;
+import com.itsix.osgi.shape.SimpleShape;
+
+/**
+ * Renders the canvas to PNG images through the bound <tt>SimpleShape</tt>
+ * services, the same way the paint frame draws it: every shape is drawn
+ * around its center and clipped to its bounds. Shapes whose service is not
+ * bound are drawn as an outline of their bounds. Services are got when a
+ * shape of their name is first rendered, and released when unbound.
+ * <p>
+ * Tiles follow the usual <tt>z/x/y</tt> scheme: at {@link #MAX_ZOOM} a tile
+ * pixel is a canvas pixel, and every level below halves the scale. Encoded
+ * tiles are kept in a {@link TileCache}.
+ * <p>
+ * Larger images are split into tiles as well, rendered in parallel on a
+ * fork/join pool, each into its own image with only the shapes intersecting
+ * it, and then composited.
+ */
+class CanvasRasterizer {
+
+    static final String PNG = "image/png";
+    static final int TILE_SIZE = 256;
+    static final int MAX_ZOOM = 8;
+    private static final int MAX_IMAGE_SIZE = 4096;
+    private static final long CACHE_SIZE = 32L << 20;
+    private static final Color MISSING_SHAPE = Color.LIGHT_GRAY;
+    private static final long STOP_TIMEOUT = 5;
+
+    private final BundleContext context;
+    private final Map<String, LazyShape> shapes = new ConcurrentHashMap<String, LazyShape>();
+    private final TileCache tiles = new TileCache(CACHE_SIZE);
+    private volatile ForkJoinPool pool;
+
+    CanvasRasterizer(BundleContext context) {
+        this.context = context;
+    }
+
+    void bindShape(String name, ServiceReference reference) {
+        LazyShape previous = shapes.put(name,
+                new LazyShape(context, reference));
+        if (previous != null) {
+            previous.release();
+        }
+        // Shapes of that name may have been drawn as outlines.
+        tiles.clear();
+    }
+
+    /**
+     * Releases the service of the given name, unless another one was bound
+     * under that name since.
+     */
+    void unbindShape(String name, ServiceReference reference) {
+        LazyShape shape = shapes.get(name);
+        if (shape != null && shape.reference.equals(reference)
+                && shapes.remove(name, shape)) {
+            shape.release();
+            tiles.clear();
+        }
+    }
+
+    /**
+     * Starts the pool rendering large images.
+     */
+    void start() {
+        pool = new ForkJoinPool();
+    }
+
+    /**
+     * Stops the pool rendering large images, once the images being rendered
+     * are done or {@link #STOP_TIMEOUT} seconds have passed. Images requested
+     * afterwards are refused with a <tt>RejectedExecutionException</tt>.
+     */
+    void stop() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(STOP_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The size of the canvas area covered by a tile at the given zoom
+     *         level.
+     */
+    static long tileSpan(int z) {
+        return (long) TILE_SIZE << (MAX_ZOOM - z);
+    }
+
+    /**
+     * @return The given tile as PNG.
+     * @throws IllegalArgumentException
+     *             If there is no such tile.
+     */
+    byte[] renderTile(PaintApi api, int z, int x, int y) throws IOException {
+        if (z < 0 || z > MAX_ZOOM) {
+            throw new IllegalArgumentException("No such zoom level: " + z);
+        }
+        long span = tileSpan(z);
+        long left = x * span;
+        long top = y * span;
+        if (left < Integer.MIN_VALUE || left + span - 1 > Integer.MAX_VALUE
+                || top < Integer.MIN_VALUE
+                || top + span - 1 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("No such tile");
+        }
+        long version = tiles.sync(api);
+        byte[] tile = tiles.get(z, x, y);
+        if (tile == null) {
+            Collection<Shape> visible = api.listShapes((int) left, (int) top,
+                    (int) (left + span - 1), (int) (top + span - 1));
+            tile = encode(render(visible, (int) left, (int) top,
+                    TILE_SIZE, TILE_SIZE, (double) TILE_SIZE / span));
+            tiles.put(version, z, x, y, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Renders the given region of the canvas at full scale, or the bounds of
+     * every shape if no region is given.
+     *
+     * @return The image as PNG.
+     * @throws IllegalArgumentException
+     *             If the image would be too large.
+     */
+    byte[] renderImage(PaintApi api, Integer x1, Integer y1, Integer x2,
+            Integer y2) throws IOException {
+        Collection<Shape> visible;
+        int left;
+        int top;
+        long width;
+        long height;
+        if (x1 == null) {
+            visible = api.listShapes();
+            left = Integer.MAX_VALUE;
+            top = Integer.MAX_VALUE;
+            long right = Integer.MIN_VALUE;
+            long bottom = Integer.MIN_VALUE;
+            for (Shape shape : visible) {
+                int shapeLeft = shape.getX() - shape.getWidth() / 2;
+                int shapeTop = shape.getY() - shape.getHeight() / 2;
+                left = Math.min(left, shapeLeft);
+                top = Math.min(top, shapeTop);
+                right = Math.max(right, (long) shapeLeft + shape.getWidth());
+                bottom = Math.max(bottom, (long) shapeTop + shape.getHeight());
+            }
+            if (visible.isEmpty()) {
+                left = 0;
+                top = 0;
+                right = 1;
+                bottom = 1;
+            }
+            width = right - left;
+            height = bottom - top;
+        } else {
+            left = Math.min(x1, x2);
+            top = Math.min(y1, y2);
+            width = (long) Math.max(x1, x2) - left + 1;
+            height = (long) Math.max(y1, y2) - top + 1;
+            visible = null;
+        }
+        if (width > MAX_IMAGE_SIZE || height > MAX_IMAGE_SIZE) {
+            throw new IllegalArgumentException("Images are limited to "
+                    + MAX_IMAGE_SIZE + "x" + MAX_IMAGE_SIZE
+                    + " pixels, use tiles instead");
+        }
+        if (visible == null) {
+            visible = api.listShapes(x1, y1, x2, y2);
+        }
+        return encode(renderTiled(visible, left, top, (int) width,
+                (int) height));
+    }
+
+    Map<String, Long> getCacheStats() {
+        return tiles.getStats();
+    }
+
+    /**
+     * Renders the given shapes at full scale, tile by tile in parallel.
+     */
+    BufferedImage renderTiled(Collection<Shape> visible, int left, int top,
+            int width, int height) {
+        int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        // Shapes are bucketed in z-order, once for every tile they overlap.
+        List<List<Shape>> buckets = new ArrayList<List<Shape>>(columns * rows);
+        for (int i = 0; i < columns * rows; i++) {
+            buckets.add(new ArrayList<Shape>());
+        }
+        for (Shape shape : visible) {
+            long shapeLeft = (long) shape.getX() - shape.getWidth() / 2 - left;
+            long shapeTop = (long) shape.getY() - shape.getHeight() / 2 - top;
+            int firstColumn = tile(shapeLeft, columns);
+            int lastColumn = tile(shapeLeft + shape.getWidth() - 1, columns);
+            int firstRow = tile(shapeTop, rows);
+            int lastRow = tile(shapeTop + shape.getHeight() - 1, rows);
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    buckets.get(row * columns + column).add(shape);
+                }
+            }
+        }
+        BufferedImage image = new BufferedImage(width, height,
+                BufferedImage.TYPE_INT_ARGB);
+        pool.invoke(new TileTask(image, buckets, left, top, columns, 0,
+                buckets.size()));
+        return image;
+    }
+
+    /**
+     * @return The tile holding the given offset, clamped to the image.
+     */
+    private static int tile(long offset, int count) {
+        return (int) Math.max(0,
+                Math.min(count - 1, TileCache.floorDiv(offset, TILE_SIZE)));
+    }
+
+    BufferedImage render(Collection<Shape> visible, int left,
+            int top, int width, int height, double scale) {
+        BufferedImage image = new BufferedImage(width, height,
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = image.createGraphics();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setColor(Color.WHITE);
+            g2.fillRect(0, 0, width, height);
+            g2.scale(scale, scale);
+            g2.translate(-(double) left, -(double) top);
+            Point center = new Point();
+            for (Shape shape : visible) {
+                drawShape(g2, shape, center);
+            }
+        } finally {
+            g2.dispose();
+        }
+        return image;
+    }
+
+    private void drawShape(Graphics2D g2, Shape shape, Point center) {
+        int shapeLeft = shape.getX() - shape.getWidth() / 2;
+        int shapeTop = shape.getY() - shape.getHeight() / 2;
+        LazyShape lazyShape = shape.getName() == null ? null
+                : shapes.get(shape.getName());
+        SimpleShape simpleShape = lazyShape == null ? null
+                : lazyShape.get();
+        if (simpleShape == null) {
+            g2.setColor(MISSING_SHAPE);
+            g2.drawRect(shapeLeft, shapeTop, shape.getWidth() - 1,
+                    shape.getHeight() - 1);
+            return;
+        }
+        java.awt.Shape clip = g2.getClip();
+        g2.clipRect(shapeLeft, shapeTop, shape.getWidth(),
+                shape.getHeight());
+        center.setLocation(shapeLeft + shape.getWidth() / 2,
+                shapeTop + shape.getHeight() / 2);
+        try {
+            simpleShape.draw(g2, center);
+        } catch (RuntimeException e) {
+            // A broken shape service must not break the whole image.
+            e.printStackTrace();
+        } finally {
+            g2.setClip(clip);
+        }
+    }
+
+    /**
+     * Renders a range of tiles into the composite image, splitting it in
+     * halves down to single tiles.
+     */
+    private class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BufferedImage image;
+        private final List<List<Shape>> buckets;
+        private final int left;
+        private final int top;
+        private final int columns;
+        private final int from;
+        private final int to;
+
+        TileTask(BufferedImage image, List<List<Shape>> buckets, int left,
+                int top, int columns, int from, int to) {
+            this.image = image;
+            this.buckets = buckets;
+            this.left = left;
+            this.top = top;
+            this.columns = columns;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new TileTask(image, buckets, left, top, columns,
+                        from, middle), new TileTask(image, buckets, left,
+                        top, columns, middle, to));
+                return;
+            }
+            int x = (from % columns) * TILE_SIZE;
+            int y = (from / columns) * TILE_SIZE;
+            BufferedImage tile = render(buckets.get(from), left + x, top + y,
+                    Math.min(TILE_SIZE, image.getWidth() - x),
+                    Math.min(TILE_SIZE, image.getHeight() - y), 1);
+            // Tiles cover disjoint parts of the image.
+            image.getRaster().setDataElements(x, y, tile.getRaster());
+        }
+    }
+
+    /**
+     * A bound shape service, got on first use.
+     */
+    private static class LazyShape {
+        private final BundleContext context;
+        private final ServiceReference reference;
+        private SimpleShape service;
+        private boolean released;
+
+        LazyShape(BundleContext context, ServiceReference reference) {
+            this.context = context;
+            this.reference = reference;
+        }
+
+        /**
+         * @return The service, or <tt>null</tt> if it is gone.
+         */
+        synchronized SimpleShape get() {
+            if (service == null && !released) {
+                service = (SimpleShape) context.getService(reference);
+            }
+            return service;
+        }
+
+        synchronized void release() {
+            released = true;
+            if (service != null) {
+                context.ungetService(reference);
+                service = null;
+            }
+        }
+    }
+
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", output);
+        return output.toByteArray();
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.itsix.osgi.paint.rest;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.sun.jersey.spi.container.servlet.ServletContainer;
+
+/**
+ * Jersey servlet timing every request into {@link RestMetrics}, from the time
+ * it is received until its response is fully written.
+ */
+class MeteredServletContainer extends ServletContainer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final RestMetrics metrics;
+
+    MeteredServletContainer(RestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void service(HttpServletRequest request,
+            HttpServletResponse response)
+            throws ServletException, IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            super.service(request, response);
+            failed = false;
+        } finally {
+            metrics.record(start, failed
+                    ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR
+                    : response.getStatus());
+        }
+    }
+
+}
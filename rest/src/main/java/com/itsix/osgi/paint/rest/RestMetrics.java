@@ -0,0 +1,255 @@
+package com.itsix.osgi.paint.rest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.itsix.osgi.paint.api.LatencyHistogram;
+import com.itsix.osgi.paint.api.PaintMetrics;
+import com.itsix.osgi.paint.api.RateMeter;
+
+/**
+ * Request counts and latencies of every REST endpoint, rendered together with
+ * the <tt>PaintMetrics</tt> of the canvas as JSON or in the Prometheus text
+ * format.
+ * <p>
+ * Requests are timed by the {@link MeteredServletContainer}, response body
+ * included, and attributed to the endpoint Jersey matched, which the
+ * {@link RouteFilterFactory} reports for the current thread. The
+ * {@link AsyncShapeServlet} times its own requests until they complete.
+ */
+class RestMetrics {
+
+    static final String PROMETHEUS = "text/plain;version=0.0.4";
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99",
+            "p999" };
+    private static final String[] QUANTILES = { "0.5", "0.9", "0.99",
+            "0.999" };
+    private static final Route UNMATCHED = new Route("unmatched", "", "");
+    private static final ThreadLocal<Route> ROUTE = new ThreadLocal<Route>();
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+
+    /**
+     * Names the endpoint serving the request of the current thread.
+     */
+    static void matched(Route route) {
+        ROUTE.set(route);
+    }
+
+    /**
+     * Records a request served by the current thread, started at the given
+     * <tt>System.nanoTime()</tt>.
+     */
+    void record(long start, int status) {
+        Route route = ROUTE.get();
+        ROUTE.remove();
+        record(route, start, status);
+    }
+
+    /**
+     * Records a request to the given endpoint, <tt>null</tt> if none matched,
+     * started at the given <tt>System.nanoTime()</tt>.
+     */
+    void record(Route route, long start, int status) {
+        long elapsed = System.nanoTime() - start;
+        if (route == null) {
+            route = UNMATCHED;
+        }
+        Endpoint endpoint = endpoints.get(route.handler);
+        if (endpoint == null) {
+            Endpoint created = new Endpoint(route);
+            endpoint = endpoints.putIfAbsent(route.handler, created);
+            if (endpoint == null) {
+                endpoint = created;
+            }
+        }
+        endpoint.latency.record(elapsed);
+        if (status >= 500) {
+            endpoint.serverErrors.incrementAndGet();
+        } else if (status >= 400) {
+            endpoint.clientErrors.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param paint
+     *            The metrics of the canvas, or <tt>null</tt> if it is not
+     *            available.
+     */
+    Map<String, Object> toJson(PaintMetrics paint) {
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        Map<String, Object> requests = new LinkedHashMap<String, Object>();
+        for (Endpoint endpoint : endpoints.values()) {
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+            values.put("method", endpoint.route.method);
+            values.put("path", endpoint.route.path);
+            values.put("clientErrors", endpoint.clientErrors.get());
+            values.put("serverErrors", endpoint.serverErrors.get());
+            values.put("latency", toJson(endpoint.latency));
+            requests.put(endpoint.route.handler, values);
+        }
+        json.put("endpoints", requests);
+        if (paint != null) {
+            // Metrics the canvas does not measure are left out.
+            if (paint.getEdtQueueWait() != null) {
+                json.put("edtQueueWait", toJson(paint.getEdtQueueWait()));
+            }
+            if (paint.getEdtRun() != null) {
+                json.put("edtRun", toJson(paint.getEdtRun()));
+            }
+            if (paint.getRepaint() != null) {
+                json.put("repaint", toJson(paint.getRepaint()));
+            }
+            json.put("mutations", toJson(paint.getMutations()));
+            if (paint.getRepaints() != null) {
+                json.put("repaints", toJson(paint.getRepaints()));
+            }
+            json.put("shapes", paint.getShapeCounts());
+        }
+        return json;
+    }
+
+    /**
+     * @param paint
+     *            The metrics of the canvas, or <tt>null</tt> if it is not
+     *            available.
+     */
+    String toPrometheus(PaintMetrics paint) {
+        StringBuilder text = new StringBuilder();
+        text.append("# HELP paint_http_request_seconds Time to serve REST requests, response included.\n");
+        text.append("# TYPE paint_http_request_seconds summary\n");
+        for (Endpoint endpoint : endpoints.values()) {
+            appendSummary(text, "paint_http_request_seconds",
+                    labels(endpoint.route), endpoint.latency);
+        }
+        text.append("# HELP paint_http_errors_total REST requests answered with an error status.\n");
+        text.append("# TYPE paint_http_errors_total counter\n");
+        for (Endpoint endpoint : endpoints.values()) {
+            String labels = labels(endpoint.route);
+            text.append("paint_http_errors_total{").append(labels)
+                    .append(",class=\"4xx\"} ")
+                    .append(endpoint.clientErrors.get()).append('\n');
+            text.append("paint_http_errors_total{").append(labels)
+                    .append(",class=\"5xx\"} ")
+                    .append(endpoint.serverErrors.get()).append('\n');
+        }
+        if (paint == null) {
+            return text.toString();
+        }
+        // Metrics the canvas does not measure are left out.
+        if (paint.getEdtQueueWait() != null) {
+            text.append("# HELP paint_edt_queue_wait_seconds Time tasks waited for the event dispatch thread.\n");
+            text.append("# TYPE paint_edt_queue_wait_seconds summary\n");
+            appendSummary(text, "paint_edt_queue_wait_seconds", null,
+                    paint.getEdtQueueWait());
+        }
+        if (paint.getEdtRun() != null) {
+            text.append("# HELP paint_edt_run_seconds Time tasks ran on the event dispatch thread.\n");
+            text.append("# TYPE paint_edt_run_seconds summary\n");
+            appendSummary(text, "paint_edt_run_seconds", null,
+                    paint.getEdtRun());
+        }
+        if (paint.getRepaint() != null) {
+            text.append("# HELP paint_repaint_seconds Time taken to paint the canvas.\n");
+            text.append("# TYPE paint_repaint_seconds summary\n");
+            appendSummary(text, "paint_repaint_seconds", null,
+                    paint.getRepaint());
+        }
+        text.append("# HELP paint_mutations_total Changes made to the canvas.\n");
+        text.append("# TYPE paint_mutations_total counter\n");
+        text.append("paint_mutations_total ")
+                .append(paint.getMutations().getCount()).append('\n');
+        if (paint.getRepaints() != null) {
+            text.append("# HELP paint_repaints_total Repaints of the canvas.\n");
+            text.append("# TYPE paint_repaints_total counter\n");
+            text.append("paint_repaints_total ")
+                    .append(paint.getRepaints().getCount()).append('\n');
+        }
+        text.append("# HELP paint_shapes Shapes on the canvas.\n");
+        text.append("# TYPE paint_shapes gauge\n");
+        for (Map.Entry<String, Integer> count : paint.getShapeCounts()
+                .entrySet()) {
+            text.append("paint_shapes{type=\"").append(escape(count.getKey()))
+                    .append("\"} ").append(count.getValue()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static Map<String, Object> toJson(RateMeter meter) {
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put("count", meter.getCount());
+        json.put("perSecond", meter.getRate());
+        return json;
+    }
+
+    private static Map<String, Object> toJson(LatencyHistogram histogram) {
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put("count", histogram.getCount());
+        json.put("meanMillis", histogram.getMean() / 1e6);
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            json.put(PERCENTILE_NAMES[i] + "Millis",
+                    histogram.getPercentile(PERCENTILES[i]) / 1e6);
+        }
+        json.put("maxMillis", histogram.getMax() / 1e6);
+        return json;
+    }
+
+    private static void appendSummary(StringBuilder text, String name,
+            String labels, LatencyHistogram histogram) {
+        String prefix = labels == null ? "" : labels + ",";
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            text.append(name).append('{').append(prefix)
+                    .append("quantile=\"").append(QUANTILES[i])
+                    .append("\"} ")
+                    .append(histogram.getPercentile(PERCENTILES[i]) / 1e9)
+                    .append('\n');
+        }
+        String suffix = labels == null ? " " : "{" + labels + "} ";
+        text.append(name).append("_sum").append(suffix)
+                .append(histogram.getSum() / 1e9).append('\n');
+        text.append(name).append("_count").append(suffix)
+                .append(histogram.getCount()).append('\n');
+    }
+
+    private static String labels(Route route) {
+        return "endpoint=\"" + escape(route.handler) + "\",method=\""
+                + escape(route.method) + "\",path=\"" + escape(route.path)
+                + "\"";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"")
+                .replace("\n", "\\n");
+    }
+
+    /**
+     * A resource method: the name of its handler, its HTTP method and path.
+     */
+    static final class Route {
+        final String handler;
+        final String method;
+        final String path;
+
+        Route(String handler, String method, String path) {
+            this.handler = handler;
+            this.method = method;
+            this.path = path;
+        }
+    }
+
+    private static final class Endpoint {
+        final Route route;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong clientErrors = new AtomicLong();
+        final AtomicLong serverErrors = new AtomicLong();
+
+        Endpoint(Route route) {
+            this.route = route;
+        }
+    }
+
+}
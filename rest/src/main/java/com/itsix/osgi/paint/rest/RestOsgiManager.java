@@ -1,19 +1,26 @@
 package com.itsix.osgi.paint.rest;
 
-import java.util.Collection;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
+import org.apache.felix.ipojo.annotations.Bind;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
 import org.apache.felix.ipojo.annotations.Invalidate;
 import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.ipojo.annotations.Unbind;
 import org.apache.felix.ipojo.annotations.Validate;
 import org.ops4j.pax.web.service.WebContainer;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
 import org.osgi.service.http.HttpContext;
 
 import com.itsix.osgi.paint.api.PaintApi;
-import com.itsix.osgi.paint.api.Shape;
+import com.itsix.osgi.paint.api.StartupTrace;
+import com.itsix.osgi.shape.SimpleShape;
 import com.sun.jersey.spi.container.servlet.ServletContainer;
 
 @Component
@@ -23,54 +30,179 @@ public class RestOsgiManager {
     private static final Integer LOAD_ON_STARTUP = 1;
     private static final Boolean ASYNC_SUPPORTED = true;
 
-    @Requires(optional = true)
-    PaintApi paintApi;
+    // Guarded by this.
+    private PaintApi paintApi;
 
     @Requires(optional = true)
     private WebContainer webContainer;
 
     //    private HttpContext defaultHttpContext;
-    private ServletContainer servletContainer;
+    // Set by the registration, read once it completed.
+    private volatile ServletContainer servletContainer;
+    private volatile AsyncShapeServlet asyncServlet;
+    private FutureTask<Void> registration;
+    private final CanvasRasterizer rasterizer;
+    private final RestMetrics metrics = new RestMetrics();
+
+    /**
+     * @param context
+     *            The context of the bundle, through which shape services are
+     *            got when first drawn.
+     */
+    public RestOsgiManager(BundleContext context) {
+        rasterizer = new CanvasRasterizer(context);
+    }
+
+    /**
+     * Serves the given <tt>PaintApi</tt>, whichever bundle provides it: the
+     * paint frame or the headless canvas. When it goes away, iPOJO binds
+     * another one, if any.
+     */
+    @Bind(optional = true)
+    public synchronized void bindPaintApi(PaintApi api) {
+        paintApi = api;
+        publishPaintApi();
+    }
+
+    @Unbind
+    public synchronized void unbindPaintApi(PaintApi api) {
+        if (paintApi == api) {
+            paintApi = null;
+            publishPaintApi();
+        }
+    }
+
+    /**
+     * Hands the bound <tt>PaintApi</tt> to the servlets, once registered.
+     * Must be called while locked.
+     */
+    private void publishPaintApi() {
+        ServletContainer container = servletContainer;
+        if (container == null) {
+            return;
+        }
+        if (paintApi == null) {
+            container.getServletContext()
+                    .removeAttribute(PaintApi.class.getName());
+        } else {
+            container.getServletContext()
+                    .setAttribute(PaintApi.class.getName(), paintApi);
+        }
+    }
+
+    /**
+     * Makes a <tt>SimpleShape</tt> available for rendering the canvas to
+     * images. Only its reference is bound: the service itself is got when a
+     * shape of its name is first rendered.
+     */
+    @Bind(aggregate = true, optional = true, specification = SimpleShape.class)
+    public void bindShape(ServiceReference reference) {
+        String name = (String) reference
+                .getProperty(SimpleShape.NAME_PROPERTY);
+        if (name != null) {
+            rasterizer.bindShape(name, reference);
+        }
+    }
+
+    @Unbind(aggregate = true, specification = SimpleShape.class)
+    public void unbindShape(ServiceReference reference) {
+        String name = (String) reference
+                .getProperty(SimpleShape.NAME_PROPERTY);
+        if (name != null) {
+            rasterizer.unbindShape(name, reference);
+        }
+    }
 
     @Validate
     public void start() {
-        try {
-            Collection<Shape> shapes = paintApi.listShapes();
-            System.out.println("There are currently " + shapes.size()
-                    + " shapes available");
-        } catch (RuntimeException e) {
-            System.out.println("Paint API is not currently available");
-        }
+        StartupTrace.mark("rest: valid");
+        rasterizer.start();
+        // Jersey initializes while the servlet is registered, which takes
+        // long enough to be worth doing off the thread validating components.
+        registration = new FutureTask<Void>(new Callable<Void>() {
+            public Void call() throws Exception {
+                register();
+                return null;
+            }
+        });
+        Thread thread = new Thread(registration, "paint-rest-registration");
+        thread.setContextClassLoader(getClass().getClassLoader());
+        thread.start();
+    }
 
+    private void register() throws Exception {
+        long start = System.nanoTime();
         HttpContext defaultHttpContext = webContainer
                 .createDefaultHttpContext();
-        servletContainer = new ServletContainer();
+        MeteredServletContainer container = new MeteredServletContainer(
+                metrics);
         Dictionary<String, String> jerseyInitParams = new Hashtable<String, String>();
         jerseyInitParams.put("com.sun.jersey.api.json.POJOMappingFeature",
                 "true");
         jerseyInitParams.put(
                 "com.sun.jersey.config.property.resourceConfigClass",
                 "com.sun.jersey.api.core.ClassNamesResourceConfig");
-        String classNames = "com.itsix.osgi.paint.rest.Service";
+        String classNames = "com.itsix.osgi.paint.rest.Service,"
+                + "com.itsix.osgi.paint.rest.ShapeBinaryProvider";
         jerseyInitParams.put("com.sun.jersey.config.property.classnames",
                 classNames);
         jerseyInitParams.put("com.sun.jersey.config.feature.DisableWADL",
                 "true");
+        jerseyInitParams.put("com.sun.jersey.spi.container.ResourceFilters",
+                "com.itsix.osgi.paint.rest.RouteFilterFactory");
         try {
-            webContainer.registerServlet(servletContainer,
+            webContainer.registerServlet(container,
                     new String[] { "/paint/*" }, jerseyInitParams,
                     LOAD_ON_STARTUP, ASYNC_SUPPORTED, defaultHttpContext);
-            servletContainer.getServletContext()
-                    .setAttribute(PaintApi.class.getName(), paintApi);
+            StartupTrace.markSince("rest: jersey servlet registered", start);
+            synchronized (this) {
+                servletContainer = container;
+                publishPaintApi();
+            }
+            container.getServletContext().setAttribute(
+                    CanvasRasterizer.class.getName(), rasterizer);
+            container.getServletContext()
+                    .setAttribute(RestMetrics.class.getName(), metrics);
+            long asyncStart = System.nanoTime();
+            AsyncShapeServlet async = new AsyncShapeServlet(metrics);
+            webContainer.registerServlet(async,
+                    new String[] { "/paint/async/*" }, null, LOAD_ON_STARTUP,
+                    ASYNC_SUPPORTED, defaultHttpContext);
+            asyncServlet = async;
+            StartupTrace.markSince("rest: async servlet registered",
+                    asyncStart);
+            StartupTrace.mark("rest: ready");
         } catch (Exception e) {
+            StartupTrace.mark("rest: registration failed");
+            e.printStackTrace();
+            throw e;
         }
     }
 
     @Invalidate
     public void stop() {
-        servletContainer.getServletContext()
-                .removeAttribute(PaintApi.class.getName());
-        webContainer.unregisterServlet(servletContainer);
+        try {
+            registration.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Already reported; whatever got registered is undone below.
+        }
+        if (servletContainer != null) {
+            servletContainer.getServletContext()
+                    .removeAttribute(PaintApi.class.getName());
+            servletContainer.getServletContext()
+                    .removeAttribute(CanvasRasterizer.class.getName());
+            servletContainer.getServletContext()
+                    .removeAttribute(RestMetrics.class.getName());
+            webContainer.unregisterServlet(servletContainer);
+            servletContainer = null;
+        }
+        if (asyncServlet != null) {
+            webContainer.unregisterServlet(asyncServlet);
+            asyncServlet = null;
+        }
+        rasterizer.stop();
     }
 
 }
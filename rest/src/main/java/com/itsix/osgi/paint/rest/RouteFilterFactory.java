@@ -0,0 +1,59 @@
+package com.itsix.osgi.paint.rest;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.ws.rs.Path;
+
+import com.sun.jersey.api.model.AbstractMethod;
+import com.sun.jersey.api.model.AbstractResourceMethod;
+import com.sun.jersey.api.model.AbstractSubResourceMethod;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerRequestFilter;
+import com.sun.jersey.spi.container.ContainerResponseFilter;
+import com.sun.jersey.spi.container.ResourceFilter;
+import com.sun.jersey.spi.container.ResourceFilterFactory;
+
+/**
+ * Reports the resource method Jersey matched to {@link RestMetrics}, so that
+ * requests are attributed to their endpoint. The route of every method is
+ * built once, when the application is initialized.
+ */
+public class RouteFilterFactory implements ResourceFilterFactory {
+
+    public List<ResourceFilter> create(AbstractMethod method) {
+        if (!(method instanceof AbstractResourceMethod)) {
+            return null;
+        }
+        String path = "/";
+        Path resourcePath = method.getResource().getAnnotation(Path.class);
+        if (resourcePath != null) {
+            path = resourcePath.value();
+        }
+        if (method instanceof AbstractSubResourceMethod) {
+            String subPath = ((AbstractSubResourceMethod) method).getPath()
+                    .getValue();
+            path = (path.endsWith("/") ? path : path + "/")
+                    + (subPath.startsWith("/") ? subPath.substring(1)
+                            : subPath);
+        }
+        final RestMetrics.Route route = new RestMetrics.Route(
+                method.getMethod().getName(),
+                ((AbstractResourceMethod) method).getHttpMethod(), path);
+        return Collections.<ResourceFilter> singletonList(new ResourceFilter() {
+            public ContainerRequestFilter getRequestFilter() {
+                return new ContainerRequestFilter() {
+                    public ContainerRequest filter(ContainerRequest request) {
+                        RestMetrics.matched(route);
+                        return request;
+                    }
+                };
+            }
+
+            public ContainerResponseFilter getResponseFilter() {
+                return null;
+            }
+        });
+    }
+
+}
@@ -1,45 +1,269 @@
 package com.itsix.osgi.paint.rest;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
 
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.map.annotate.JsonView;
+import org.codehaus.jackson.util.MinimalPrettyPrinter;
 
+import com.itsix.osgi.paint.api.ColumnarSnapshot;
 import com.itsix.osgi.paint.api.PaintApi;
+import com.itsix.osgi.paint.api.PaintMetrics;
 import com.itsix.osgi.paint.api.Shape;
+import com.itsix.osgi.paint.api.ShapePage;
+import com.itsix.osgi.paint.api.ShapeResult;
+import com.itsix.osgi.paint.api.StallReport;
+import com.itsix.osgi.paint.api.StartupTrace;
+import com.itsix.osgi.paint.api.SubscriberStats;
+import com.itsix.osgi.paint.api.internal.MappedBuffers;
 
 @Path("/")
 public class Service {
 
+    static final String NDJSON = "application/x-ndjson";
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    // Lower server-side quality than JSON, which stays the default for
+    // clients accepting anything.
+    static final String SHAPES_BINARY = ShapeBinaryProvider.MEDIA_TYPE
+            + ";qs=0.5";
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final int MAX_PAGE_SIZE = 10000;
+    // Bytes of the largest snapshot accepted by importSnapshot.
+    static final long MAX_SNAPSHOT_SIZE = 256L << 20;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     @Context
     ServletContext context;
 
+    @Context
+    Request request;
+
+    @Context
+    UriInfo uriInfo;
+
+    /**
+     * Lists the shapes on the canvas. When <tt>since</tt> is given, only the
+     * changes made after that canvas version are returned, as a
+     * <tt>ShapeChanges</tt>; a negative version is answered with <tt>400</tt>.
+     * When <tt>x1</tt>, <tt>y1</tt>, <tt>x2</tt> and <tt>y2</tt> are given,
+     * only the shapes intersecting that rectangle are returned. Otherwise,
+     * when <tt>limit</tt> or <tt>after</tt> is given, only one page is
+     * returned and the cursor of the next one is sent in the
+     * <tt>X-Next-Cursor</tt> header, if there are more shapes.
+     * <p>
+     * The canvas version is sent as the <tt>ETag</tt>, and requests whose
+     * <tt>If-None-Match</tt> still matches it are answered with <tt>304</tt>.
+     * The listing is negotiated, so responses vary with <tt>Accept</tt>.
+     */
     @JsonView(Shape.class)
     @GET
     @Path("shapes")
     @Produces(MediaType.APPLICATION_JSON)
-    public Collection<Shape> listShapes() {
+    public Response listShapes(@QueryParam("since") Long since,
+            @QueryParam("after") Long after,
+            @QueryParam("limit") Integer limit,
+            @QueryParam("x1") Integer x1, @QueryParam("y1") Integer y1,
+            @QueryParam("x2") Integer x2, @QueryParam("y2") Integer y2) {
+        if (since != null && since < 0) {
+            throw new WebApplicationException(Response
+                    .status(Status.BAD_REQUEST)
+                    .entity("since must not be negative")
+                    .type(MediaType.TEXT_PLAIN).build());
+        }
+        PaintApi api = getPaintApi();
+        // Read before the shapes, so the tag never claims more than was sent.
+        EntityTag tag = new EntityTag(Long.toString(api.getVersion()));
+        ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return tagged(notModified, tag).build();
+        }
+        if (since != null) {
+            return tagged(Response.ok(api.listChanges(since)), tag).build();
+        }
+        return listShapes(api, tag, after, limit, x1, y1, x2, y2);
+    }
+
+    /**
+     * Lists the shapes on the canvas in the binary format of
+     * <tt>ShapeCodec</tt>, filtered and paged as for the JSON listing. Only
+     * served to clients asking for it, JSON being preferred otherwise. Its
+     * <tt>ETag</tt> is the canvas version suffixed with <tt>-bin</tt>, so it
+     * never matches the JSON listing.
+     */
+    @GET
+    @Path("shapes")
+    @Produces(SHAPES_BINARY)
+    public Response listShapesBinary(@QueryParam("after") Long after,
+            @QueryParam("limit") Integer limit,
+            @QueryParam("x1") Integer x1, @QueryParam("y1") Integer y1,
+            @QueryParam("x2") Integer x2, @QueryParam("y2") Integer y2) {
         PaintApi api = getPaintApi();
-        return api.listShapes();
+        EntityTag tag = new EntityTag(api.getVersion() + "-bin");
+        ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return tagged(notModified, tag).build();
+        }
+        return listShapes(api, tag, after, limit, x1, y1, x2, y2);
     }
 
+    /**
+     * Streams the shapes on the canvas as newline-delimited JSON, reading them
+     * a page at a time so that memory use does not depend on the size of the
+     * canvas. Region filtering and paging work as for the JSON listing.
+     */
+    @GET
+    @Path("shapes")
+    @Produces(NDJSON)
+    public Response streamShapes(@QueryParam("after") Long after,
+            @QueryParam("limit") Integer limit,
+            @QueryParam("x1") Integer x1, @QueryParam("y1") Integer y1,
+            @QueryParam("x2") Integer x2, @QueryParam("y2") Integer y2) {
+        final PaintApi api = getPaintApi();
+        if (isRegion(x1, y1, x2, y2)) {
+            final Collection<Shape> shapes = api.listShapes(x1, y1, x2, y2);
+            return Response.ok(new StreamingOutput() {
+                public void write(OutputStream output) throws IOException {
+                    JsonGenerator generator = createGenerator(output);
+                    writeShapes(generator, shapes);
+                    close(generator);
+                }
+            }).build();
+        }
+        final long start = after == null ? 0 : after;
+        if (after == null && limit == null) {
+            return Response.ok(new StreamingOutput() {
+                public void write(OutputStream output) throws IOException {
+                    JsonGenerator generator = createGenerator(output);
+                    ShapePage page;
+                    long cursor = start;
+                    do {
+                        page = api.listShapes(cursor, DEFAULT_PAGE_SIZE);
+                        writeShapes(generator, page.getShapes());
+                        cursor = page.getNextCursor();
+                    } while (page.hasMore());
+                    close(generator);
+                }
+            }).build();
+        }
+        final ShapePage page = api.listShapes(start, pageSize(limit));
+        return withCursor(Response.ok(new StreamingOutput() {
+            public void write(OutputStream output) throws IOException {
+                JsonGenerator generator = createGenerator(output);
+                writeShapes(generator, page.getShapes());
+                close(generator);
+            }
+        }), page).build();
+    }
+
+    /**
+     * Adds a shape, answering with the added shape and its location, or with
+     * <tt>400</tt> if it has no name or is out of the bounds of the canvas.
+     */
+    @JsonView(Shape.class)
     @Path("shapes")
     @POST
+    @Consumes({ MediaType.APPLICATION_JSON, ShapeBinaryProvider.MEDIA_TYPE })
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response addShape(ShapeDTO shapeDTO) {
+        PaintApi api = getPaintApi();
+        Shape added;
+        try {
+            added = api.addShape(shapeDTO);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(Response
+                    .status(Status.BAD_REQUEST).entity(e.getMessage())
+                    .type(MediaType.TEXT_PLAIN).build());
+        }
+        return Response.created(uriInfo.getAbsolutePathBuilder()
+                .path(Long.toString(added.getId())).build()).entity(added)
+                .build();
+    }
+
+    @JsonView(Shape.class)
+    @GET
+    @Path("shapes/{id: [0-9]+}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Shape getShape(@PathParam("id") long id) {
+        PaintApi api = getPaintApi();
+        return found(api.getShape(id));
+    }
+
+    /**
+     * Moves the shape with the given id to the position of the given shape.
+     * The name, if given, must be the name of the shape.
+     */
+    @JsonView(Shape.class)
+    @PUT
+    @Path("shapes/{id: [0-9]+}")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public void addShape(ShapeDTO shapeDTO) {
+    public Shape moveShape(@PathParam("id") long id, ShapeDTO shapeDTO) {
+        if (shapeDTO == null) {
+            throw new WebApplicationException(Response
+                    .status(Status.BAD_REQUEST).entity("Missing shape")
+                    .type(MediaType.TEXT_PLAIN).build());
+        }
         PaintApi api = getPaintApi();
-        api.addShape(shapeDTO);
+        Shape shape = found(api.getShape(id));
+        if (shapeDTO.getName() != null
+                && !shapeDTO.getName().equals(shape.getName())) {
+            throw new WebApplicationException(Response
+                    .status(Status.BAD_REQUEST)
+                    .entity("Shapes cannot change their name")
+                    .type(MediaType.TEXT_PLAIN).build());
+        }
+        try {
+            return found(api.moveShape(id, shapeDTO.getX(), shapeDTO.getY()));
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(Response
+                    .status(Status.BAD_REQUEST).entity(e.getMessage())
+                    .type(MediaType.TEXT_PLAIN).build());
+        }
+    }
+
+    @DELETE
+    @Path("shapes/{id: [0-9]+}")
+    public void deleteShape(@PathParam("id") long id) {
+        PaintApi api = getPaintApi();
+        found(api.deleteShape(id));
     }
 
     @Path("shapes")
@@ -52,8 +276,346 @@ public class Service {
         api.deleteShape(shapeDTO);
     }
 
+    @Path("shapes/batch")
+    @POST
+    @Consumes({ MediaType.APPLICATION_JSON, ShapeBinaryProvider.MEDIA_TYPE })
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<ShapeResult> addShapes(List<ShapeDTO> shapeDTOs) {
+        PaintApi api = getPaintApi();
+        return api.addShapes(shapeDTOs);
+    }
+
+    @Path("shapes/batch/delete")
+    @POST
+    @Consumes({ MediaType.APPLICATION_JSON, ShapeBinaryProvider.MEDIA_TYPE })
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<ShapeResult> deleteShapes(List<ShapeDTO> shapeDTOs) {
+        PaintApi api = getPaintApi();
+        return api.deleteShapes(shapeDTOs);
+    }
+
+    /**
+     * Streams a <tt>ColumnarSnapshot</tt> of the canvas, to be imported into
+     * another canvas with <tt>PUT snapshot</tt>.
+     */
+    @GET
+    @Path("snapshot")
+    @Produces(ColumnarSnapshot.MEDIA_TYPE)
+    public StreamingOutput exportSnapshot() {
+        final PaintApi api = getPaintApi();
+        return new StreamingOutput() {
+            public void write(OutputStream output) throws IOException {
+                api.exportSnapshot(Channels.newChannel(output));
+            }
+        };
+    }
+
+    /**
+     * Adds the shapes of the <tt>ColumnarSnapshot</tt> in the request body to
+     * the canvas. The snapshot is spooled to a temporary file and mapped, so
+     * it is never held in memory as a whole; bodies larger than
+     * {@link #MAX_SNAPSHOT_SIZE} are answered with <tt>413</tt>.
+     *
+     * @return The number of shapes added, as <tt>added</tt>.
+     */
+    @PUT
+    @Path("snapshot")
+    @Consumes(ColumnarSnapshot.MEDIA_TYPE)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Integer> importSnapshot(InputStream input)
+            throws IOException {
+        PaintApi api = getPaintApi();
+        File file = File.createTempFile("paint-snapshot", null);
+        try {
+            spool(input, file);
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ)) {
+                MappedByteBuffer snapshot = channel
+                        .map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                try {
+                    return Collections.singletonMap("added",
+                            api.importSnapshot(snapshot));
+                } finally {
+                    // Released before the file is deleted.
+                    MappedBuffers.unmap(snapshot);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new WebApplicationException(Response
+                        .status(Status.BAD_REQUEST).entity(e.getMessage())
+                        .type(MediaType.TEXT_PLAIN).build());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Copies the request body to the given file.
+     *
+     * @throws WebApplicationException
+     *             With <tt>413</tt> if the body is larger than
+     *             {@link #MAX_SNAPSHOT_SIZE}.
+     */
+    private static void spool(InputStream input, File file)
+            throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        long size = 0;
+        try (OutputStream output = new FileOutputStream(file)) {
+            for (int n; (n = input.read(buffer)) != -1;) {
+                size += n;
+                if (size > MAX_SNAPSHOT_SIZE) {
+                    throw new WebApplicationException(Response.status(
+                            HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE)
+                            .entity("Snapshot larger than " + MAX_SNAPSHOT_SIZE
+                                    + " bytes")
+                            .type(MediaType.TEXT_PLAIN).build());
+                }
+                output.write(buffer, 0, n);
+            }
+        }
+    }
+
+    /**
+     * Renders the canvas to PNG, the region given by <tt>x1</tt>, <tt>y1</tt>,
+     * <tt>x2</tt> and <tt>y2</tt> or else the bounds of all the shapes.
+     * Larger canvases are served as tiles. Answered with <tt>503</tt> while
+     * the bundle is stopping.
+     */
+    @GET
+    @Path("image")
+    @Produces(CanvasRasterizer.PNG)
+    public Response renderImage(@QueryParam("x1") Integer x1,
+            @QueryParam("y1") Integer y1, @QueryParam("x2") Integer x2,
+            @QueryParam("y2") Integer y2) throws IOException {
+        PaintApi api = getPaintApi();
+        isRegion(x1, y1, x2, y2);
+        try {
+            return Response.ok(getRasterizer().renderImage(api, x1, y1, x2, y2))
+                    .build();
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(Response
+                    .status(Status.BAD_REQUEST).entity(e.getMessage())
+                    .type(MediaType.TEXT_PLAIN).build());
+        } catch (RejectedExecutionException e) {
+            // The rasterizer is stopping.
+            throw new WebApplicationException(Status.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Renders a tile of the canvas to PNG. At the highest zoom level, a tile
+     * pixel is a canvas pixel; every level below halves the scale.
+     */
+    @GET
+    @Path("tiles/{z}/{x}/{y}")
+    @Produces(CanvasRasterizer.PNG)
+    public Response renderTile(@PathParam("z") int z, @PathParam("x") int x,
+            @PathParam("y") int y) throws IOException {
+        PaintApi api = getPaintApi();
+        try {
+            return Response.ok(getRasterizer().renderTile(api, z, x, y))
+                    .build();
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(Response
+                    .status(Status.NOT_FOUND).entity(e.getMessage())
+                    .type(MediaType.TEXT_PLAIN).build());
+        }
+    }
+
+    @GET
+    @Path("tiles/stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Long> getTileStats() {
+        return getRasterizer().getCacheStats();
+    }
+
+    /**
+     * Reports the latency of every endpoint and the event dispatch thread,
+     * repaint and shape count metrics of the canvas.
+     */
+    @GET
+    @Path("metrics")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> getMetrics() {
+        return getMetricsRegistry().toJson(getPaintMetrics());
+    }
+
+    /**
+     * Reports the same metrics in the Prometheus text format. Served to
+     * clients asking for plain text, JSON being preferred otherwise.
+     */
+    @GET
+    @Path("metrics")
+    @Produces(RestMetrics.PROMETHEUS + ";qs=0.5")
+    public String getPrometheusMetrics() {
+        return getMetricsRegistry().toPrometheus(getPaintMetrics());
+    }
+
+    @GET
+    @Path("subscribers")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<SubscriberStats> listSubscriberStats() {
+        PaintApi api = getPaintApi();
+        return api.listSubscriberStats();
+    }
+
+    /**
+     * Reports the startup timeline of the application.
+     */
+    @GET
+    @Path("startup")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<StartupTrace.Event> getStartupTrace() {
+        return StartupTrace.getEvents();
+    }
+
+    /**
+     * Reports the latest stalls of the event dispatch thread, newest first.
+     */
+    @GET
+    @Path("stalls")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<StallReport> listStalls() {
+        PaintApi api = getPaintApi();
+        return api.listStalls();
+    }
+
+    /**
+     * @return Whether a region was requested.
+     * @throws WebApplicationException
+     *             If only some of the corners are given.
+     */
+    private static boolean isRegion(Integer x1, Integer y1, Integer x2,
+            Integer y2) {
+        if (x1 == null && y1 == null && x2 == null && y2 == null) {
+            return false;
+        }
+        if (x1 == null || y1 == null || x2 == null || y2 == null) {
+            throw new WebApplicationException(Response
+                    .status(Status.BAD_REQUEST)
+                    .entity("x1, y1, x2 and y2 must be given together")
+                    .type(MediaType.TEXT_PLAIN).build());
+        }
+        return true;
+    }
+
+    private static Response listShapes(PaintApi api, EntityTag tag,
+            Long after, Integer limit, Integer x1, Integer y1, Integer x2,
+            Integer y2) {
+        if (isRegion(x1, y1, x2, y2)) {
+            return tagged(Response.ok(api.listShapes(x1, y1, x2, y2)), tag)
+                    .build();
+        }
+        if (after == null && limit == null) {
+            return tagged(Response.ok(api.listShapes()), tag).build();
+        }
+        ShapePage page = api.listShapes(after == null ? 0 : after,
+                pageSize(limit));
+        return tagged(withCursor(Response.ok(page.getShapes()), page), tag)
+                .build();
+    }
+
+    /**
+     * Tags a response of the shape listing, whose representation depends on
+     * the <tt>Accept</tt> header.
+     */
+    private static ResponseBuilder tagged(ResponseBuilder builder,
+            EntityTag tag) {
+        return builder.tag(tag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+    }
+
+    private static int pageSize(Integer limit) {
+        if (limit == null || limit <= 0) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        return Math.min(limit, MAX_PAGE_SIZE);
+    }
+
+    private static ResponseBuilder withCursor(ResponseBuilder builder,
+            ShapePage page) {
+        if (page.hasMore()) {
+            builder.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return builder;
+    }
+
+    /**
+     * @return The given shape.
+     * @throws WebApplicationException
+     *             If there is no shape.
+     */
+    private static Shape found(Shape shape) {
+        if (shape == null) {
+            throw new WebApplicationException(Status.NOT_FOUND);
+        }
+        return shape;
+    }
+
+    private static JsonGenerator createGenerator(OutputStream output)
+            throws IOException {
+        JsonGenerator generator = JSON_FACTORY.createJsonGenerator(output,
+                JsonEncoding.UTF8);
+        generator.setPrettyPrinter(new MinimalPrettyPrinter("\n"));
+        return generator;
+    }
+
+    private static void close(JsonGenerator generator) throws IOException {
+        if (generator.getOutputContext().getEntryCount() > 0) {
+            // Terminates the last line.
+            generator.writeRaw('\n');
+        }
+        generator.close();
+    }
+
+    private static void writeShapes(JsonGenerator generator,
+            Collection<Shape> shapes) throws IOException {
+        for (Shape shape : shapes) {
+            generator.writeStartObject();
+            generator.writeNumberField("id", shape.getId());
+            generator.writeStringField("name", shape.getName());
+            generator.writeNumberField("x", shape.getX());
+            generator.writeNumberField("y", shape.getY());
+            generator.writeNumberField("width", shape.getWidth());
+            generator.writeNumberField("height", shape.getHeight());
+            generator.writeEndObject();
+        }
+        // Push each page to the client as soon as it is written.
+        generator.flush();
+    }
+
+    /**
+     * @return The bound <tt>PaintApi</tt>.
+     * @throws WebApplicationException
+     *             If no bundle provides it.
+     */
     private PaintApi getPaintApi() {
-        return (PaintApi) context.getAttribute(PaintApi.class.getName());
+        PaintApi api = (PaintApi) context
+                .getAttribute(PaintApi.class.getName());
+        if (api == null) {
+            throw new WebApplicationException(Status.SERVICE_UNAVAILABLE);
+        }
+        return api;
+    }
+
+    private PaintMetrics getPaintMetrics() {
+        PaintApi api = (PaintApi) context
+                .getAttribute(PaintApi.class.getName());
+        try {
+            return api == null ? null : api.getMetrics();
+        } catch (RuntimeException e) {
+            // The paint frame went away; its metrics with it.
+            return null;
+        }
+    }
+
+    private RestMetrics getMetricsRegistry() {
+        return (RestMetrics) context
+                .getAttribute(RestMetrics.class.getName());
+    }
+
+    private CanvasRasterizer getRasterizer() {
+        return (CanvasRasterizer) context
+                .getAttribute(CanvasRasterizer.class.getName());
     }
 
 }
@@ -0,0 +1,109 @@
+package com.itsix.osgi.paint.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import com.itsix.osgi.paint.api.Shape;
+
+/**
+ * Reads and writes shapes in the binary format of {@link ShapeCodec}, for
+ * clients that send or accept <tt>application/x-paint-shapes</tt>. Writes
+ * single shapes and collections of shapes; reads a <tt>ShapeDTO</tt>, which
+ * must then be the only shape of the message, or a list of them.
+ */
+@Provider
+@Produces(ShapeBinaryProvider.MEDIA_TYPE)
+@Consumes(ShapeBinaryProvider.MEDIA_TYPE)
+public class ShapeBinaryProvider
+        implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
+
+    public static final String MEDIA_TYPE = "application/x-paint-shapes";
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType,
+            Annotation[] annotations, MediaType mediaType) {
+        return Shape.class.isAssignableFrom(type)
+                || Collection.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(Object entity, Class<?> type, Type genericType,
+            Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(Object entity, Class<?> type, Type genericType,
+            Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders,
+            OutputStream entityStream) throws IOException {
+        Collection<?> entities = entity instanceof Collection
+                ? (Collection<?>) entity : Collections.singletonList(entity);
+        for (Object element : entities) {
+            if (!(element instanceof Shape)) {
+                throw new WebApplicationException(Status.NOT_ACCEPTABLE);
+            }
+        }
+        @SuppressWarnings("unchecked")
+        Collection<? extends Shape> shapes = (Collection<? extends Shape>) entities;
+        ShapeCodec.write(shapes, entityStream);
+    }
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType,
+            Annotation[] annotations, MediaType mediaType) {
+        if (type == ShapeDTO.class) {
+            return true;
+        }
+        if (type == List.class && genericType instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) genericType)
+                    .getActualTypeArguments();
+            return arguments.length == 1 && arguments[0] == ShapeDTO.class;
+        }
+        return false;
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType,
+            Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, String> httpHeaders,
+            InputStream entityStream) throws IOException {
+        List<ShapeDTO> shapes;
+        try {
+            shapes = ShapeCodec.read(entityStream);
+        } catch (IOException e) {
+            throw badRequest(e.getMessage());
+        }
+        if (!ShapeDTO.class.equals(type)) {
+            return shapes;
+        }
+        if (shapes.size() != 1) {
+            throw badRequest("Expected a single shape");
+        }
+        return shapes.get(0);
+    }
+
+    private static WebApplicationException badRequest(String message) {
+        return new WebApplicationException(Response.status(Status.BAD_REQUEST)
+                .entity(message).type(MediaType.TEXT_PLAIN).build());
+    }
+
+}
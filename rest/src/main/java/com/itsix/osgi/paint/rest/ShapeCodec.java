@@ -0,0 +1,256 @@
+package com.itsix.osgi.paint.rest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.itsix.osgi.paint.api.Shape;
+
+/**
+ * Compact binary encoding of a list of shapes. A message is made of:
+ * <ul>
+ * <li>the format version, a single byte;</li>
+ * <li>the dictionary: the number of distinct shape names, followed by each
+ * name as its UTF-8 length and bytes;</li>
+ * <li>the number of shapes, followed by each shape as the dictionary index of
+ * its name, its id, then its <tt>x</tt>, <tt>y</tt>, <tt>width</tt> and
+ * <tt>height</tt>.</li>
+ * </ul>
+ * Counts, lengths, indexes and ids are unsigned varints (7 bits per byte,
+ * least significant group first); coordinates and sizes are zigzag-encoded
+ * varints, so a typical shape takes 9 to 12 bytes. Version 1 messages, which
+ * have no ids, are still read, as shapes with id 0.
+ */
+final class ShapeCodec {
+
+    static final int FORMAT_VERSION = 2;
+    // The first version, without shape ids.
+    private static final int FORMAT_VERSION_1 = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8192;
+    // Upper bound of the bytes written for a single shape.
+    private static final int MAX_SHAPE_SIZE = 5 * 5 + 10;
+    private static final int MAX_NAME_LENGTH = 1 << 16;
+
+    private ShapeCodec() {
+    }
+
+    static void write(Collection<? extends Shape> shapes, OutputStream output)
+            throws IOException {
+        Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        List<String> names = new ArrayList<String>();
+        for (Shape shape : shapes) {
+            if (!dictionary.containsKey(shape.getName())) {
+                dictionary.put(shape.getName(), names.size());
+                names.add(shape.getName());
+            }
+        }
+        Writer writer = new Writer(output);
+        writer.writeByte(FORMAT_VERSION);
+        writer.writeUnsigned(names.size());
+        for (String name : names) {
+            byte[] bytes = name == null ? new byte[0] : name.getBytes(UTF8);
+            writer.writeUnsigned(bytes.length);
+            writer.writeBytes(bytes);
+        }
+        writer.writeUnsigned(shapes.size());
+        for (Shape shape : shapes) {
+            writer.ensureCapacity(MAX_SHAPE_SIZE);
+            writer.writeUnsigned(dictionary.get(shape.getName()));
+            writer.writeUnsignedLong(shape.getId());
+            writer.writeSigned(shape.getX());
+            writer.writeSigned(shape.getY());
+            writer.writeSigned(shape.getWidth());
+            writer.writeSigned(shape.getHeight());
+        }
+        writer.flush();
+    }
+
+    /**
+     * @throws IOException
+     *             If the input is truncated or is not a valid message.
+     */
+    static List<ShapeDTO> read(InputStream input) throws IOException {
+        Reader reader = new Reader(input);
+        int version = reader.readByte();
+        if (version != FORMAT_VERSION && version != FORMAT_VERSION_1) {
+            throw new IOException("Unsupported format version " + version);
+        }
+        int nameCount = reader.readUnsigned();
+        String[] names = new String[Math.min(nameCount, 1024)];
+        for (int i = 0; i < nameCount; i++) {
+            int length = reader.readUnsigned();
+            if (length > MAX_NAME_LENGTH) {
+                throw new IOException("Shape name too long");
+            }
+            if (i == names.length) {
+                names = Arrays.copyOf(names, names.length * 2);
+            }
+            names[i] = new String(reader.readBytes(length), UTF8);
+        }
+        int shapeCount = reader.readUnsigned();
+        List<ShapeDTO> shapes = new ArrayList<ShapeDTO>(
+                Math.min(shapeCount, 1024));
+        for (int i = 0; i < shapeCount; i++) {
+            int index = reader.readUnsigned();
+            if (index >= nameCount) {
+                throw new IOException("Unknown shape name index " + index);
+            }
+            long id = version == FORMAT_VERSION_1 ? 0
+                    : reader.readUnsignedLong();
+            ShapeDTO shape = new ShapeDTO(names[index], reader.readSigned(),
+                    reader.readSigned());
+            shape.setId(id);
+            // Sizes are decided by the canvas.
+            reader.readSigned();
+            reader.readSigned();
+            shapes.add(shape);
+        }
+        return shapes;
+    }
+
+    private static class Writer {
+        private final OutputStream output;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+
+        Writer(OutputStream output) {
+            this.output = output;
+        }
+
+        void ensureCapacity(int size) throws IOException {
+            if (position + size > buffer.length) {
+                flushBuffer();
+            }
+        }
+
+        void writeByte(int value) throws IOException {
+            ensureCapacity(1);
+            buffer[position++] = (byte) value;
+        }
+
+        void writeUnsigned(int value) throws IOException {
+            ensureCapacity(5);
+            while ((value & ~0x7f) != 0) {
+                buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeUnsignedLong(long value) throws IOException {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeSigned(int value) throws IOException {
+            writeUnsigned((value << 1) ^ (value >> 31));
+        }
+
+        void writeBytes(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.length - position) {
+                flushBuffer();
+                output.write(bytes);
+            } else {
+                System.arraycopy(bytes, 0, buffer, position, bytes.length);
+                position += bytes.length;
+            }
+        }
+
+        void flush() throws IOException {
+            flushBuffer();
+            output.flush();
+        }
+
+        private void flushBuffer() throws IOException {
+            output.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private static class Reader {
+        private final InputStream input;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        private int limit;
+
+        Reader(InputStream input) {
+            this.input = input;
+        }
+
+        int readByte() throws IOException {
+            if (position == limit) {
+                limit = input.read(buffer);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    throw new EOFException("Truncated shape message");
+                }
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        int readUnsigned() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) {
+                        throw new IOException("Negative count or length");
+                    }
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        long readUnsignedLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) {
+                        throw new IOException("Negative id");
+                    }
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        int readSigned() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return (value >>> 1) ^ -(value & 1);
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) readByte();
+            }
+            return bytes;
+        }
+    }
+
+}
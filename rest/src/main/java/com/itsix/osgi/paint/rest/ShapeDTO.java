@@ -6,6 +6,7 @@ import com.itsix.osgi.paint.api.Shape;
 
 public class ShapeDTO implements Shape {
 
+    private long id;
     private int x;
     private int y;
     private String name;
@@ -19,6 +20,14 @@ public class ShapeDTO implements Shape {
         this.y = y;
     }
 
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
     public int getX() {
         return x;
     }
@@ -0,0 +1,140 @@
+package com.itsix.osgi.paint.rest;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.itsix.osgi.paint.api.PaintApi;
+import com.itsix.osgi.paint.api.Shape;
+import com.itsix.osgi.paint.api.ShapeChange;
+import com.itsix.osgi.paint.api.ShapeChanges;
+
+/**
+ * Least recently used cache of encoded tiles, bounded by the total size of the
+ * tiles. The cache follows the version of the canvas: when it falls behind,
+ * only the tiles touched by the changes made since are dropped, at every zoom
+ * level, unless the changes are no longer available and everything goes.
+ */
+class TileCache {
+
+    private final long capacity;
+    // Guarded by this.
+    private final LinkedHashMap<Long, byte[]> tiles = new LinkedHashMap<Long, byte[]>(
+            16, 0.75f, true);
+    private long size;
+    private long version = -1;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity
+     *            The maximum total size of the cached tiles, in bytes.
+     */
+    TileCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Catches up with the current version of the canvas.
+     *
+     * @return The version the cached tiles are valid for. Tiles rendered from
+     *         the canvas from now on are at least as recent.
+     */
+    synchronized long sync(PaintApi api) {
+        long current = api.getVersion();
+        if (current == version) {
+            return version;
+        }
+        ShapeChanges changes = version < 0 ? null : api.listChanges(version);
+        if (changes == null || !changes.isComplete()) {
+            clear();
+            version = current;
+            return version;
+        }
+        for (ShapeChange change : changes.getChanges()) {
+            Shape shape = change.getShape();
+            invalidate(change.getPreviousX(), change.getPreviousY(), shape);
+            invalidate(shape.getX(), shape.getY(), shape);
+        }
+        version = changes.getVersion();
+        return version;
+    }
+
+    synchronized byte[] get(int z, int x, int y) {
+        byte[] tile = tiles.get(key(z, x, y));
+        if (tile == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return tile;
+    }
+
+    /**
+     * Caches a tile rendered as of the given version, unless the cache has
+     * moved past that version since, in which case the tile may already be
+     * stale.
+     */
+    synchronized void put(long renderedVersion, int z, int x, int y,
+            byte[] tile) {
+        if (renderedVersion != version || tile.length > capacity) {
+            return;
+        }
+        byte[] previous = tiles.put(key(z, x, y), tile);
+        size += tile.length - (previous == null ? 0 : previous.length);
+        Iterator<byte[]> eldest = tiles.values().iterator();
+        while (size > capacity) {
+            size -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    synchronized void clear() {
+        tiles.clear();
+        size = 0;
+    }
+
+    synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("tiles", (long) tiles.size());
+        stats.put("bytes", size);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        return stats;
+    }
+
+    /**
+     * Drops the tiles covering the bounds of the given shape centered on the
+     * given position. Must be called while locked.
+     */
+    private void invalidate(int x, int y, Shape shape) {
+        long left = x - shape.getWidth() / 2;
+        long top = y - shape.getHeight() / 2;
+        long right = left + shape.getWidth() - 1;
+        long bottom = top + shape.getHeight() - 1;
+        for (int z = 0; z <= CanvasRasterizer.MAX_ZOOM; z++) {
+            long span = CanvasRasterizer.tileSpan(z);
+            for (long ty = floorDiv(top, span); ty <= floorDiv(bottom,
+                    span); ty++) {
+                for (long tx = floorDiv(left, span); tx <= floorDiv(right,
+                        span); tx++) {
+                    byte[] tile = tiles.remove(key(z, (int) tx, (int) ty));
+                    if (tile != null) {
+                        size -= tile.length;
+                    }
+                }
+            }
+        }
+    }
+
+    static long floorDiv(long value, long divisor) {
+        long quotient = value / divisor;
+        return value % divisor < 0 ? quotient - 1 : quotient;
+    }
+
+    private static Long key(int z, int x, int y) {
+        // Tile coordinates fit in 28 bits at every zoom level.
+        return ((long) z << 56) | ((x & 0xfffffffL) << 28) | (y & 0xfffffffL);
+    }
+
+}
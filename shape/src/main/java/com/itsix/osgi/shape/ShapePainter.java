@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.itsix.osgi.shape;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Paints a shape the way the bundled shapes look: filled with a gradient from
+ * the given color to white, left to right, and outlined in black.
+ * <p>
+ * Java2D creates a new paint context, rasters included, every time a gradient
+ * is filled. So the shape is rendered once into a sprite per antialiasing
+ * setting, and drawn from it whenever the graphics only translate, which
+ * allocates nothing. Scaled or rotated graphics are painted from the outline,
+ * as sprites would not scale cleanly.
+ **/
+public final class ShapePainter {
+
+    private static final BasicStroke WIDE_STROKE = new BasicStroke(2.0f);
+
+    private final Shape shape;
+    private final GradientPaint gradient;
+    private final Rectangle bounds;
+    private volatile BufferedImage smoothSprite;
+    private volatile BufferedImage sharpSprite;
+
+    /**
+     * @param shape
+     *            The outline of the shape, around the origin.
+     * @param color
+     *            The color the gradient starts from.
+     **/
+    public ShapePainter(Shape shape, Color color) {
+        this.shape = shape;
+        Rectangle2D box = shape.getBounds2D();
+        this.gradient = new GradientPaint((float) box.getMinX(),
+                (float) box.getMinY(), color, (float) box.getMaxX(),
+                (float) box.getMinY(), Color.WHITE);
+        // Miter joins may stick out of the outline, and strokes are moved by
+        // up to half a pixel to fit the pixel grid.
+        this.bounds = WIDE_STROKE.createStrokedShape(shape).getBounds();
+        bounds.grow(1, 1);
+    }
+
+    /**
+     * Paints the shape centered on the given position.
+     *
+     * @param g2
+     *            The graphics object used for painting.
+     * @param p
+     *            The position to paint the shape.
+     **/
+    public void draw(Graphics2D g2, Point p) {
+        int type = g2.getTransform().getType();
+        if ((type & ~AffineTransform.TYPE_TRANSLATION) == 0) {
+            g2.drawImage(getSprite(g2), p.x + bounds.x, p.y + bounds.y, null);
+            return;
+        }
+        g2.translate(p.x, p.y);
+        paint(g2);
+        g2.translate(-p.x, -p.y);
+    }
+
+    private void paint(Graphics2D g2) {
+        g2.setPaint(gradient);
+        g2.fill(shape);
+        g2.setColor(Color.black);
+        g2.setStroke(WIDE_STROKE);
+        g2.draw(shape);
+    }
+
+    private BufferedImage getSprite(Graphics2D g2) {
+        boolean smooth = RenderingHints.VALUE_ANTIALIAS_ON.equals(
+                g2.getRenderingHint(RenderingHints.KEY_ANTIALIASING));
+        BufferedImage sprite = smooth ? smoothSprite : sharpSprite;
+        if (sprite == null) {
+            // Rendering it twice in a race is harmless.
+            sprite = render(smooth);
+            if (smooth) {
+                smoothSprite = sprite;
+            } else {
+                sharpSprite = sprite;
+            }
+        }
+        return sprite;
+    }
+
+    private BufferedImage render(boolean smooth) {
+        BufferedImage sprite = new BufferedImage(bounds.width, bounds.height,
+                BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2 = sprite.createGraphics();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    smooth ? RenderingHints.VALUE_ANTIALIAS_ON
+                            : RenderingHints.VALUE_ANTIALIAS_OFF);
+            g2.translate(-bounds.x, -bounds.y);
+            paint(g2);
+        } finally {
+            g2.dispose();
+        }
+        return sprite;
+    }
+
+}
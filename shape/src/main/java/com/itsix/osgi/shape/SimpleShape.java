@@ -23,11 +23,17 @@ import java.awt.Point;
 
 /**
  * This interface defines the <tt>SimpleShape</tt> service. This service is used
- * to draw shapes. It has two service properties:
+ * to draw shapes. It has the following service properties:
  * <ul>
  * <li>simple.shape.name - A <tt>String</tt> name for the shape.</li>
  * <li>simple.shape.icon - An <tt>Icon</tt> for the shape.</li>
+ * <li>simple.shape.icon.resource - The path of the icon of the shape within
+ * the bundle providing it, used when there is no <tt>Icon</tt>.</li>
  * </ul>
+ * Providers that only register the name and the icon resource, as static
+ * properties, can be registered lazily: the paint frame only gets the service
+ * when a shape has to be drawn, and only decodes the icon when the toolbar is
+ * first painted.
  **/
 public interface SimpleShape {
 
@@ -41,6 +47,12 @@ public interface SimpleShape {
 	 **/
 	public static final String ICON_PROPERTY = "simple.shape.icon";
 
+	/**
+	 * A service property for the path of the icon of the shape within the
+	 * bundle providing it.
+	 **/
+	public static final String ICON_RESOURCE_PROPERTY = "simple.shape.icon.resource";
+
 	/**
 	 * Draw this shape at the given position.
 	 * 
@@ -0,0 +1,71 @@
+package com.itsix.osgi.shape;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+/**
+ * Checks what every <tt>SimpleShape</tt> must do, given the shape of a bundle:
+ * drawing allocates nothing, with or without antialiasing, as shapes are
+ * drawn on the event dispatch thread for every shape on the canvas.
+ */
+public abstract class AbstractShapeTest {
+
+    private static final int WARM_UP = 20000;
+    private static final int DRAWS = 5000;
+    private static final long MAX_BYTES_PER_DRAW = 16;
+
+    /**
+     * @return The shape to test.
+     */
+    protected abstract SimpleShape createShape();
+
+    @Test
+    public void drawsWithoutAllocating() {
+        assertDrawsWithoutAllocating(RenderingHints.VALUE_ANTIALIAS_ON);
+        assertDrawsWithoutAllocating(RenderingHints.VALUE_ANTIALIAS_OFF);
+    }
+
+    private void assertDrawsWithoutAllocating(Object antialiasing) {
+        com.sun.management.ThreadMXBean threads = getThreadMXBean();
+        SimpleShape shape = createShape();
+        BufferedImage image = new BufferedImage(64, 64,
+                BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2 = image.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiasing);
+        Point center = new Point(32, 32);
+        try {
+            for (int i = 0; i < WARM_UP; i++) {
+                shape.draw(g2, center);
+            }
+            long thread = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < DRAWS; i++) {
+                shape.draw(g2, center);
+            }
+            long perDraw = (threads.getThreadAllocatedBytes(thread) - before)
+                    / DRAWS;
+            assertTrue(perDraw + " bytes allocated per draw, " + antialiasing,
+                    perDraw <= MAX_BYTES_PER_DRAW);
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        Object threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported()
+                && allocations.isThreadAllocatedMemoryEnabled());
+        return allocations;
+    }
+
+}
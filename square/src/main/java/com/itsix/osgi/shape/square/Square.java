@@ -18,28 +18,26 @@
  */
 package com.itsix.osgi.shape.square;
 
+import com.itsix.osgi.shape.ShapePainter;
 import com.itsix.osgi.shape.SimpleShape;
 import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
 import org.apache.felix.ipojo.annotations.Provides;
-import org.apache.felix.ipojo.annotations.ServiceProperty;
+import org.apache.felix.ipojo.annotations.StaticServiceProperty;
 
-import javax.swing.ImageIcon;
-import java.awt.BasicStroke;
 import java.awt.Color;
-import java.awt.GradientPaint;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.geom.Rectangle2D;
 
-@Component(immediate = true)
-@Provides
+@Component
+@Provides(strategy = "SERVICE", properties = {
+		@StaticServiceProperty(name = SimpleShape.NAME_PROPERTY, value = "Square", type = "java.lang.String"),
+		@StaticServiceProperty(name = SimpleShape.ICON_RESOURCE_PROPERTY, value = "/square.png", type = "java.lang.String") })
+@Instantiate
 public class Square implements SimpleShape {
 
-	@ServiceProperty(name = SimpleShape.NAME_PROPERTY)
-	String m_name = "Square";
-
-	@ServiceProperty(name = SimpleShape.ICON_PROPERTY)
-	ImageIcon m_icon = new ImageIcon(this.getClass().getResource("square.png"));
+	private static final ShapePainter PAINTER = new ShapePainter(new Rectangle2D.Double(-25, -25, 50, 50), Color.BLUE);
 
 	/**
 	 * Implements the <tt>SimpleShape.draw()</tt> method for painting the shape.
@@ -50,14 +48,6 @@ public class Square implements SimpleShape {
 	 *            The position to paint the triangle.
 	 **/
 	public void draw(Graphics2D g2, Point p) {
-		int x = p.x - 25;
-		int y = p.y - 25;
-		GradientPaint gradient = new GradientPaint(x, y, Color.BLUE, x + 50, y, Color.WHITE);
-		g2.setPaint(gradient);
-		g2.fill(new Rectangle2D.Double(x, y, 50, 50));
-		BasicStroke wideStroke = new BasicStroke(2.0f);
-		g2.setColor(Color.black);
-		g2.setStroke(wideStroke);
-		g2.draw(new Rectangle2D.Double(x, y, 50, 50));
+		PAINTER.draw(g2, p);
 	}
 }
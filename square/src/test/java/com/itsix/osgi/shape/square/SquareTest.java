@@ -0,0 +1,13 @@
+package com.itsix.osgi.shape.square;
+
+import com.itsix.osgi.shape.AbstractShapeTest;
+import com.itsix.osgi.shape.SimpleShape;
+
+public class SquareTest extends AbstractShapeTest {
+
+    @Override
+    protected SimpleShape createShape() {
+        return new Square();
+    }
+
+}
@@ -18,28 +18,26 @@
  */
 package com.itsix.osgi.shape.triangle;
 
+import com.itsix.osgi.shape.ShapePainter;
 import com.itsix.osgi.shape.SimpleShape;
 import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
 import org.apache.felix.ipojo.annotations.Provides;
-import org.apache.felix.ipojo.annotations.ServiceProperty;
+import org.apache.felix.ipojo.annotations.StaticServiceProperty;
 
-import javax.swing.ImageIcon;
-import java.awt.BasicStroke;
 import java.awt.Color;
-import java.awt.GradientPaint;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.geom.GeneralPath;
 
-@Component(immediate = true)
-@Provides
+@Component
+@Provides(strategy = "SERVICE", properties = {
+        @StaticServiceProperty(name = SimpleShape.NAME_PROPERTY, value = "Triangle", type = "java.lang.String"),
+        @StaticServiceProperty(name = SimpleShape.ICON_RESOURCE_PROPERTY, value = "/triangle.png", type = "java.lang.String") })
+@Instantiate
 public class Triangle implements SimpleShape {
 
-    @ServiceProperty(name = SimpleShape.NAME_PROPERTY)
-    String m_name = "Triangle";
-
-    @ServiceProperty(name = SimpleShape.ICON_PROPERTY)
-    ImageIcon m_icon = new ImageIcon(this.getClass().getResource("triangle.png"));
+    private static final ShapePainter PAINTER = new ShapePainter(createTriangle(), Color.GREEN);
 
     /**
      * Implements the <tt>SimpleShape.draw()</tt> method for painting the shape.
@@ -48,22 +46,18 @@ public class Triangle implements SimpleShape {
      * @param p  The position to paint the triangle.
      **/
     public void draw(Graphics2D g2, Point p) {
-        int x = p.x - 25;
-        int y = p.y - 25;
-        GradientPaint gradient = new GradientPaint(x, y, Color.GREEN, x + 50, y, Color.WHITE);
-        g2.setPaint(gradient);
-        int[] xcoords = {x + 25, x, x + 50};
-        int[] ycoords = {y, y + 50, y + 50};
+        PAINTER.draw(g2, p);
+    }
+
+    private static GeneralPath createTriangle() {
+        int[] xcoords = {0, -25, 25};
+        int[] ycoords = {-25, 25, 25};
         GeneralPath polygon = new GeneralPath(GeneralPath.WIND_EVEN_ODD, xcoords.length);
-        polygon.moveTo(x + 25, y);
+        polygon.moveTo(0, -25);
         for (int i = 0; i < xcoords.length; i++) {
             polygon.lineTo(xcoords[i], ycoords[i]);
         }
         polygon.closePath();
-        g2.fill(polygon);
-        BasicStroke wideStroke = new BasicStroke(2.0f);
-        g2.setColor(Color.black);
-        g2.setStroke(wideStroke);
-        g2.draw(polygon);
+        return polygon;
     }
 }
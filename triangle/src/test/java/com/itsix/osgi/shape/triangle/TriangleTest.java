@@ -0,0 +1,13 @@
+package com.itsix.osgi.shape.triangle;
+
+import com.itsix.osgi.shape.AbstractShapeTest;
+import com.itsix.osgi.shape.SimpleShape;
+
+public class TriangleTest extends AbstractShapeTest {
+
+    @Override
+    protected SimpleShape createShape() {
+        return new Triangle();
+    }
+
+}